@@ -20,19 +20,25 @@ import androidx.activity.result.contract.ActivityResultContracts;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.ShortBuffer;
-import java.util.Arrays;
 
 import android.widget.TextView;
 
 import com.arthenica.ffmpegkit.FFmpegKit;
+import com.arthenica.ffmpegkit.FFmpegKitConfig;
+import com.arthenica.ffmpegkit.FFprobeKit;
+import com.arthenica.ffmpegkit.MediaInformation;
+import com.arthenica.ffmpegkit.ReturnCode;
 import com.arthenica.ffmpegkit.Session;
+import com.arthenica.ffmpegkit.StreamInformation;
 
 import android.content.Intent;
 
 public class AudioCapture extends AppCompatActivity {
     private static final String TAG = "AudioCapture";
     private static final int PERMISSION_REQUEST_CODE = 1001;
-    private static final long MAX_RECORDING_MS = 60_000; //max recording duration 1 min
+    private static final long MAX_RECORDING_MS = 60_000; //max recording duration 1 min on the heap
+    private static final long MAX_SPILL_RECORDING_MS = 3 * 60 * 60_000L; //3 h at most when takes spill to a file
+    private static final long MAX_SPILL_BYTES = 1L << 30; //and no more than 1 GB of spill file, 3 h would be 4 GB at 48 kHz stereo float
     private TextView recordingIndicator;
     private Button startButton;
     private Button stopButton;
@@ -40,20 +46,25 @@ public class AudioCapture extends AppCompatActivity {
     private Button EQButton;
     private AudioRecord record;
     private volatile boolean isRecording = false;
-    private Thread recordingThread;
+    private final AudioWorker recordWorker = new AudioWorker("AudioCapture"); //reads the mic, parked between recordings
     private ActivityResultLauncher<String> mp3Picker;
 
-    private static final int SAMPLE_RATE = 44100;
+    private static final int DECODE_CHANNELS = 2; // mp3s are decoded to stereo, wider ones downmixed
     private static final int BUFFER_SIZE = 1024;
     private final byte[] inBuffer = new byte[BUFFER_SIZE];//byte
     private final short[] shortBuffer = new short[BUFFER_SIZE/2];//1sample=2bytes, 512 samples
+    private final float[] floatInBuffer = new float[BUFFER_SIZE/2];//float capture, 512 samples
     //50 frames per second (1000/20ms)
-    private static final int AUDIO_BUFFER_SIZE = SAMPLE_RATE / 50; //20ms mono frame
-    private final short[] audioBuffer = new short[AUDIO_BUFFER_SIZE]; //mono
+    private int sampleRate; //the engine's, which is the device's native rate
+    private short[] audioBuffer; //20ms frame, interleaved, sized for the mic's rate and channels
+    private float[] floatAudioBuffer; //the same when capturing float
+    private boolean recordFloat; //mic delivers ENCODING_PCM_FLOAT
+    private int recordChannels = 1;
     private int audioBufferIndex = 0;
     private volatile boolean isDecoding = false;
     private Thread decodingThread;
     private volatile Session ffmpegSession;
+    private volatile boolean pipeOpened; // the import side has opened the decode pipe
     private long recordingStartTimeMs = 0;
 
     private AudioEngine audioEngine;
@@ -86,6 +97,7 @@ public class AudioCapture extends AppCompatActivity {
         });
 
         audioEngine = AudioEngine.getInstance(this);
+        sampleRate = audioEngine.getSampleRate(); // capture at the rate everything else runs at
 
         mp3Picker = registerForActivityResult(//when user selects a file, onMp3Selected is called
                 new ActivityResultContracts.GetContent(),
@@ -138,9 +150,9 @@ public class AudioCapture extends AppCompatActivity {
     protected void onPause() { //stoping all audio work
         Log.d(TAG, "onPause IS CALLED");
         if (!(isUploading)) {
+            stopRecording(); //before releasing, the worker may be reading from it
             releaseAudio();
-            stopRecording();
-            stopDecoding();
+            // an import keeps streaming into AudioEngine while EQActivity plays it
         }
         super.onPause();
     }
@@ -167,6 +179,7 @@ public class AudioCapture extends AppCompatActivity {
         stopRecording();
         stopDecoding();
         releaseAudio();
+        recordWorker.quit();
     }
 
     private void checkAndRequestPermissions() {
@@ -181,21 +194,25 @@ public class AudioCapture extends AppCompatActivity {
 
     private void initializeAudio() {//creates and configures AudioRecord for mic capture
         if (record != null) return;
-        try {//asking android for minimum safe buffer size
-            int minBuffer = AudioRecord.getMinBufferSize(
-                    SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
-            record = new AudioRecord.Builder()//building AudioRecord with the required audio format (44,1kHz, PCM16, mono)
-                    .setAudioSource(MediaRecorder.AudioSource.MIC)
-                    .setAudioFormat(new AudioFormat.Builder()
-                            .setSampleRate(SAMPLE_RATE)
-                            .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
-                            .setChannelMask(AudioFormat.CHANNEL_IN_MONO)
-                            .build())
-                    .setBufferSizeInBytes(minBuffer)
-                    .build();
-            if (record.getState() != AudioRecord.STATE_INITIALIZED) {//verifying initialization succeeded
+        try {
+            // float if the engine keeps takes as float and the mic can do it, PCM16 otherwise;
+            // stereo if the mic can do it, mono otherwise
+            if (audioEngine.isFloatPath()) {
+                record = createRecord(AudioFormat.CHANNEL_IN_STEREO, AudioFormat.ENCODING_PCM_FLOAT);
+                if (record == null) record = createRecord(AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_FLOAT);
+            }
+            recordFloat = record != null;
+            if (record == null) record = createRecord(AudioFormat.CHANNEL_IN_STEREO, AudioFormat.ENCODING_PCM_16BIT);
+            if (record == null) record = createRecord(AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+            if (record == null) {//verifying initialization succeeded
                 Log.e(TAG, "AudioRecord failed to initialize");
-                record = null;
+                return;
+            }
+            recordChannels = record.getChannelCount();
+            if (recordFloat) {
+                floatAudioBuffer = new float[sampleRate / 50 * recordChannels];
+            } else {
+                audioBuffer = new short[sampleRate / 50 * recordChannels];
             }
         } catch (SecurityException se) {//checking permissions just to be safe
             Log.e(TAG, "Permission missing: " + se.getMessage());
@@ -204,6 +221,32 @@ public class AudioCapture extends AppCompatActivity {
         }
     }
 
+    // null if the device can't record with that channel mask and encoding
+    private AudioRecord createRecord(int channelMask, int encoding) {
+        //asking android for minimum safe buffer size
+        int minBuffer = AudioRecord.getMinBufferSize(sampleRate, channelMask, encoding);
+        if (minBuffer <= 0) return null;
+        AudioRecord candidate;
+        try {
+            candidate = new AudioRecord.Builder()//building AudioRecord with the required audio format (native rate, float or PCM16)
+                    .setAudioSource(MediaRecorder.AudioSource.MIC)
+                    .setAudioFormat(new AudioFormat.Builder()
+                            .setSampleRate(sampleRate)
+                            .setEncoding(encoding)
+                            .setChannelMask(channelMask)
+                            .build())
+                    .setBufferSizeInBytes(minBuffer)
+                    .build();
+        } catch (UnsupportedOperationException e) {
+            return null;
+        }
+        if (candidate.getState() != AudioRecord.STATE_INITIALIZED) {
+            candidate.release();
+            return null;
+        }
+        return candidate;
+    }
+
     private void releaseAudio() {
         if (record != null) {//releases AudioRecord resources when activity stops or pauses
             record.release();
@@ -222,13 +265,12 @@ public class AudioCapture extends AppCompatActivity {
         }
 
         audioBufferIndex = 0;
-        audioEngine.clear(); //clearing the recording
+        audioEngine.clear(recordChannels); //clearing the recording
 
         isRecording = true;
         recordingStartTimeMs = android.os.SystemClock.elapsedRealtime();//saving start time, max 1min recording
         record.startRecording();//capturing audio from mic
-        recordingThread = new Thread(this::recordLoop);//background loop that reads audio continuously
-        recordingThread.start();
+        recordWorker.start(new RecordTask());//reads audio continuously on the audio worker
 
         recordingIndicator.setText(getResources().getText(R.string.recording_indicator));
         recordingIndicator.setTextColor(getResources().getColor(R.color.colorAccent));
@@ -248,24 +290,48 @@ public class AudioCapture extends AppCompatActivity {
         Log.d(TAG, "Started recording");
     }
 
-    private void recordLoop() {
+    //how long a spilled take can get before the file reaches MAX_SPILL_BYTES, capped at MAX_SPILL_RECORDING_MS
+    private long maxSpillRecordingMs() {
+        long bytesPerSecond = (long) sampleRate * recordChannels * (audioEngine.isFloatPath() ? 4 : 2);
+        return Math.min(MAX_SPILL_RECORDING_MS, MAX_SPILL_BYTES * 1000 / bytesPerSecond);
+    }
 
+    // One mic read per block on the audio worker, until stopped or the time limit is up
+    private final class RecordTask implements AudioWorker.Task {
         // Create reusable ByteBuffer + ShortBuffer once
-        ByteBuffer byteBuffer = ByteBuffer
+        private final ByteBuffer byteBuffer = ByteBuffer
                 .wrap(inBuffer)
                 .order(ByteOrder.LITTLE_ENDIAN);
+        private final ShortBuffer shortView = byteBuffer.asShortBuffer();
 
-        ShortBuffer shortView = byteBuffer.asShortBuffer();
+        // A read that returns later than the record buffer lasts means the mic overran it
+        private final PerfMetrics metrics = PerfMetrics.getInstance();
+        private final long bufferNanos = record.getBufferSizeInFrames() * 1_000_000_000L / sampleRate;
+        private final long maxRecordingMs = audioEngine.hasSpillStorage() ? maxSpillRecordingMs() : MAX_RECORDING_MS;
+        private long lastReturn = System.nanoTime();
 
-        while (isRecording) {
+        @Override
+        public boolean process() {
             long elapsed = android.os.SystemClock.elapsedRealtime() - recordingStartTimeMs;
-            if (elapsed >= MAX_RECORDING_MS) {
+            if (!isRecording || elapsed >= maxRecordingMs) {
                 isRecording = false;
-                break;
+                return false;
             }
 
-            int read = record.read(inBuffer, 0, BUFFER_SIZE);   //reading raw audio bytes from mic
-            if (read <= 0) continue;
+            long start = System.nanoTime();
+            int read = recordFloat
+                    ? record.read(floatInBuffer, 0, floatInBuffer.length, AudioRecord.READ_BLOCKING) //float samples, no conversion
+                    : record.read(inBuffer, 0, BUFFER_SIZE);   //reading raw audio bytes from mic
+            long now = System.nanoTime();
+            metrics.record(PerfMetrics.Stage.CAPTURE_READ, start);
+            if (now - lastReturn > bufferNanos) metrics.increment(PerfMetrics.Counter.CAPTURE_OVERRUNS);
+            lastReturn = now;
+            if (read <= 0) return true;
+
+            if (recordFloat) {
+                appendFloat(read);
+                return true;
+            }
 
             int samplesRead = read / 2; //converting bytes to samples (number of samples=bytes/2)
 
@@ -292,13 +358,27 @@ public class AudioCapture extends AppCompatActivity {
                 offset += toCopy;
 
                 if (audioBufferIndex >= audioBuffer.length) {  //frame complete
-                    // Pass a copy so buffer reuse if safe
-                    short[] frameCopy = audioBuffer.clone();
-                    Log.d(TAG, "Read frame : " + Arrays.toString(frameCopy));
-                    onFrameReady(frameCopy);    //one full 20ms mono frame
+                    onFrameReady(audioBuffer);  //one full 20ms frame, the store copies it so the buffer is reused
                     audioBufferIndex = 0;       //resetting for next frame
                 }
             }
+            return true;
+        }
+    }
+
+    // Float capture: gathers samplesRead samples of floatInBuffer into 20ms frames. The
+    // store copies each frame as it's appended, so the buffer is reused as is.
+    private void appendFloat(int samplesRead) {
+        int offset = 0;
+        while (offset < samplesRead) {
+            int toCopy = Math.min(floatAudioBuffer.length - audioBufferIndex, samplesRead - offset);
+            System.arraycopy(floatInBuffer, offset, floatAudioBuffer, audioBufferIndex, toCopy);
+            audioBufferIndex += toCopy;
+            offset += toCopy;
+            if (audioBufferIndex >= floatAudioBuffer.length) {  //frame complete
+                audioEngine.appendBuffer(floatAudioBuffer);
+                audioBufferIndex = 0;
+            }
         }
     }
 
@@ -307,14 +387,8 @@ public class AudioCapture extends AppCompatActivity {
         isRecording = false;//turning recording off
         if (record != null && record.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING)
             record.stop();//stopping AudioRecord capturing from mic if its still recording
-        if (recordingThread != null && Thread.currentThread() != recordingThread) {
-            try {
-                recordingThread.join();
-            } catch (InterruptedException ignored) {
-            }
-        }
+        recordWorker.stop();//waits for the read in progress, which the stop above ends
         Log.d(TAG, "Stopped recording");
-        recordingThread = null;
 
         if (hasUploaded) {
                 return;
@@ -342,58 +416,103 @@ public class AudioCapture extends AppCompatActivity {
         startMp3DecodeToPcm(uri);//starting decoding mp3 to PCM
     }
 
+    // FFmpeg decodes straight into a named pipe that AudioEngine imports from while
+    // it runs: no copy of the MP3 in the cache, no full decoded.pcm file. The pipe is the
+    // bounded queue between the two, FFmpeg blocks on it when the import is behind.
+    // FFmpeg keeps the file's own rate; AudioEngine converts it to the device rate once,
+    // on the way into the take.
     private void startMp3DecodeToPcm(@NonNull Uri uri) {
         isDecoding = true; //enabling decoding loop
-        decodingThread = new Thread(() -> {
-            decodeMp3ToPcmFile(uri);
+        audioBufferIndex = 0;
+        pipeOpened = false;
 
-            // Notify when done
-            runOnUiThread(() -> {
-                finishUploading();
+        String pipe = FFmpegKitConfig.registerNewFFmpegPipe(this);
+        // a saf: parameter can only be opened once, the probe gets its own
+        String probeInput = FFmpegKitConfig.getSafParameterForRead(this, uri);
+        String input = FFmpegKitConfig.getSafParameterForRead(this, uri);
+
+        decodingThread = new Thread(() -> {
+            int rate = probeSampleRate(probeInput);
+            if (!isDecoding) { // stopped while probing
+                FFmpegKitConfig.closeFFmpegPipe(pipe);
+                return;
+            }
+            //-f s16le is for raw PCM 16-bit little-endian
+            //-ar is the file's own rate (or the engine's if it couldn't be read)
+            //-ac 2 is for stereo, mono files come out with both channels the same
+            String command = "-y -i " + input + " -f s16le -acodec pcm_s16le -ar " + rate
+                    + " -ac " + DECODE_CHANNELS + " " + pipe;
+            Log.d(TAG, "Running FFmpeg: " + command);
+            Session started = FFmpegKit.executeAsync(command, session -> {
+                Log.d(TAG, "Decode finished, returnCode = " + session.getReturnCode());
+                ffmpegSession = null;
+                if (!ReturnCode.isSuccess(session.getReturnCode()) && !pipeOpened) {
+                    releasePipeReader(pipe); // FFmpeg never opened its end
+                }
+                FFmpegKitConfig.closeFFmpegPipe(pipe);
             });
-        }); // Background thread for decoding
+            ffmpegSession = started;
+            if (!isDecoding) FFmpegKit.cancel(started.getSessionId()); // stopped meanwhile
 
+            try {
+                // Blocks until FFmpeg opens the pipe for writing
+                java.io.FileInputStream in = new java.io.FileInputStream(pipe);
+                pipeOpened = true;
+                audioEngine.importFrom(new RawPcmSource(in.getChannel(), rate, DECODE_CHANNELS), importListener);
+            } catch (java.io.IOException e) {
+                Log.e(TAG, "Opening decode pipe failed", e);
+                runOnUiThread(this::finishUploading);
+            }
+        }, "Mp3Decode");
         decodingThread.start();
-        audioBufferIndex = 0;
-        audioEngine.clear();
     }
 
-    private void decodeMp3ToPcmFile(@NonNull Uri uri) {
-//        try {
-//            java.io.File inputFile = new java.io.File(getCacheDir(), "input.mp3");//FFmpegKit works easiest with file paths
-//            try (java.io.InputStream in = getContentResolver().openInputStream(uri);
-//                 java.io.OutputStream out = new java.io.FileOutputStream(inputFile)) {
-//                byte[] buffer = new byte[8192];//temporary buffer for copying Mp3 stream (8KB is standard IO size)
-//                int read;
-//                while ((read = in.read(buffer)) > 0) {
-//                    out.write(buffer, 0, read);
-//                }
-//            }
-//            //-f s16le is for raw PCM 16-bit little-endian
-//            //-ar 44100 is for sample rate
-//            //-ac 1 is for MONO
-//            java.io.File outputFile = new java.io.File(getCacheDir(), "decoded.pcm");//decoded raw PCM
-//            String command = "-y -i " + inputFile.getAbsolutePath() +
-//                    " -f s16le -acodec pcm_s16le -ar 44100 -ac 1 " + outputFile.getAbsolutePath();
-//            Log.d(TAG, "Running FFmpeg: " + command);
-//            ffmpegSession = FFmpegKit.execute(command);
-//            Log.d(TAG, "Decode finished, returnCode = " + ffmpegSession.getReturnCode());
-//            ffmpegSession = null;
-//            if (!isDecoding) return;//if user pressed stop during decode- exit
-//            if (!outputFile.exists()) return;//if decode failed -exit
-//            Log.d(TAG, "PCM file path = " + outputFile.getAbsolutePath());//read decoded PCM and feed frames into onFrameReady()
-//            feedPcmFileToFrames(outputFile);
-//        }
-//        catch (Exception e) {
-//            Log.e(TAG, "decodeMp3ToPcmFile error", e);
-//        }
+    // Sample rate of the file's first audio stream, the engine's if it can't be read
+    private int probeSampleRate(String input) {
+        MediaInformation info = FFprobeKit.getMediaInformation(input).getMediaInformation();
+        if (info != null) {
+            for (StreamInformation stream : info.getStreams()) {
+                if (!"audio".equals(stream.getType()) || stream.getSampleRate() == null) continue;
+                try {
+                    return Integer.parseInt(stream.getSampleRate());
+                } catch (NumberFormatException e) {
+                    break;
+                }
+            }
+        }
+        Log.w(TAG, "Sample rate unknown, letting FFmpeg convert to " + sampleRate + " Hz");
+        return sampleRate;
+    }
+
+    // Opens and closes the write end so a reader stuck in open() sees end of file
+    private void releasePipeReader(String pipe) {
         try {
-            Thread.sleep(1000);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+            new java.io.FileOutputStream(pipe).close();
+        } catch (java.io.IOException e) {
+            Log.e(TAG, "Releasing decode pipe failed", e);
         }
     }
 
+    // Called on the import thread
+    private final StreamingImporter.Listener importListener = new StreamingImporter.Listener() {
+        @Override
+        public void onReady() {
+            runOnUiThread(AudioCapture.this::finishUploading); // playable while decoding goes on
+        }
+
+        @Override
+        public void onFinished(int samples) {
+            isDecoding = false;
+        }
+
+        @Override
+        public void onError(java.io.IOException e) {
+            Log.e(TAG, "Import failed", e);
+            isDecoding = false;
+            runOnUiThread(AudioCapture.this::finishUploading);
+        }
+    };
+
     private void finishUploading() {
         recordingIndicator.setText(getResources().getText(R.string.ready));
         recordingIndicator.setTextColor(getResources().getColor(R.color.colorGreen));
@@ -414,39 +533,15 @@ public class AudioCapture extends AppCompatActivity {
         isUploading = false;
     }
 
-    private void feedPcmFileToFrames(@NonNull java.io.File pcmFile) {
-        final int frameShorts = AUDIO_BUFFER_SIZE; //882
-        final int frameBytes  = frameShorts * 2; //882 * 2 bytes = 1764 bytes
-        byte[] pcmBytes = new byte[frameBytes];
-        try (java.io.InputStream in = new java.io.BufferedInputStream(new java.io.FileInputStream(pcmFile))) {
-            while (isDecoding) {
-                int total = 0;
-                while (total < frameBytes) {//reading full frame(1764 bytes)
-                    int n = in.read(pcmBytes, total, frameBytes - total);
-                    if (n < 0) { //file ended
-                        isDecoding = false;
-                        return;
-                    }
-                    total += n;
-                }
-                ByteBuffer.wrap(pcmBytes)//converting raw PCM bytes to PCM16 short samples
-                        .order(ByteOrder.LITTLE_ENDIAN)
-                        .asShortBuffer()
-                        .get(audioBuffer, 0, frameShorts);
-                onFrameReady(audioBuffer);//full frame (same output format as mic)
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "feedPcmFileToFrames failed", e);
-        }
-    }
-
     private void stopDecoding() {
         isDecoding = false;
         audioBufferIndex = 0;
-        if (ffmpegSession != null) {//if FFmpeg is running - canceling it
-            FFmpegKit.cancel(ffmpegSession.getSessionId());
+        Session session = ffmpegSession;
+        if (session != null) {//if FFmpeg is running - canceling it
+            FFmpegKit.cancel(session.getSessionId());
             ffmpegSession = null;
         }
+        audioEngine.cancelImport();
         decodingThread = null;
 
     }
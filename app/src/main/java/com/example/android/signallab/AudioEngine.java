@@ -3,73 +3,141 @@ package com.example.android.signallab;
 import android.content.Context;
 import android.media.AudioAttributes;
 import android.media.AudioFormat;
+import android.media.AudioManager;
 import android.media.AudioTrack;
 import android.util.Log;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 public class AudioEngine {
     private static final String TAG = "AudioEngine";
     private static AudioEngine instance;
     private final Context context;
-    private List<Float> audioTrack = new ArrayList<>(); // Stores the recorded audio
+    private final SampleStore samples; // Stores the recorded audio
 
     private AudioTrack track;
-    private Thread playbackThread;
+    private boolean trackFloat; // track takes ENCODING_PCM_FLOAT, otherwise PCM16
+    private final AudioWorker worker = new AudioWorker("AudioEngine"); // playback and monitoring
     private VisualEngine visualEngine;
     private volatile boolean isPlaying;
-    private volatile boolean isPaused;
-    private final Object pauseLock = new Object();
-    private volatile int bufferPosition; // Current playback position
-    // Class fields
-    private short[] buffer;       // audio buffer
-    private int totalSamples;     // total length of buffer
-    // EQ gains
-    private volatile float bassGain = 1.0f;
-    private volatile float midGain = 1.0f;
-    private volatile float trebleGain = 1.0f;
-
-    private Filter lowPass;
-    private Filter bandPass;
-    private Filter bandPass2;
-    private Filter highPass;
+    private int playChannels; // of the take being played, fixed for a run
+    private volatile int bufferPosition; // Current playback position in frames
+    private final AtomicInteger seekTarget = new AtomicInteger(-1); // pending seek, -1 for none
+    private int fadeIn;                  // samples left to fade in after a seek, playback thread
+    private int totalFrames;      // length of the take being played
+    private volatile int channels = 1; // of the current take, samples are interleaved
+    private volatile EqProcessor eq;
+    private final int sampleRate; // the output's native rate, everything runs at it
+    private StreamingImporter importer;
+    private volatile boolean importing;   // samples is still being filled by importer
+    private LiveMonitor monitor;          // created on first use
+    private final PerfMetrics metrics = PerfMetrics.getInstance();
 
     // Chosen parameters
-    private static final int SAMPLE_RATE = 44100; // target sample rate
-    private static final int CHANNEL_CONFIG = AudioFormat.CHANNEL_OUT_MONO;
-    private static final int AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
-
-
+    private static final int FALLBACK_SAMPLE_RATE = 48000;
+    public static final int MAX_CHANNELS = 8;
+    private static final int FRAME_SIZE = 1024; // frames per playback block
+    private static final int IMPORT_READY_MS = 300; // decoded audio needed before playback
+    private static final long IMPORT_WAIT_NS = 5_000_000;
+    private static final String SPILL_FILE = "take.pcm";
+    private static final int SEEK_PREROLL = 2048; // frames run through the EQ before a seek target, on top of its delay lines
+    private static final int SEEK_FADE = 128;     // ~3 ms fade in after a seek
+
+    // Playback work buffers, allocated once and reused for every block
+    private final short[] frame = new short[FRAME_SIZE * MAX_CHANNELS];
+    private final float[] floatFrame = new float[FRAME_SIZE * MAX_CHANNELS];
+    private final float[] processedFrame = new float[FRAME_SIZE * MAX_CHANNELS];
+
+
+    // Empties the take, keeping its channel count
     public synchronized void clear() {
-        audioTrack.clear();
+        clear(channels);
+    }
+
+    // Empties the take and makes the next one channels wide (interleaved). The EQ is
+    // rebuilt with the same settings when the width changes.
+    public synchronized void clear(int channels) {
+        if (channels < 1 || channels > MAX_CHANNELS) {
+            throw new IllegalArgumentException("channels must be 1.." + MAX_CHANNELS + ", got " + channels);
+        }
+        samples.clear();
+        samples.setChannels(channels);
+        // while monitoring the EQ stays at the mic's width, stopMonitoring() fits it to the take
+        if (eq != null && !isMonitoring() && eq.getChannels() != channels) eq = eq.copy(channels, FRAME_SIZE);
+        this.channels = channels;
+        seekTarget.set(-1);
         track = null;
-        buffer = null;
+        totalFrames = 0;
         bufferPosition = 0;
     }
     //WHITE NOISE FOR TESTING
     public synchronized void generateWhiteNoise(float seconds, float amplitude) {
-        clear();
+        clear(1);
 
-        int totalSamples = (int)(SAMPLE_RATE * seconds);
+        int totalSamples = (int)(sampleRate * seconds);
 
         for (int i = 0; i < totalSamples; i++) {
             float sample = (float)(Math.random() * 2.0 - 1.0);
             sample *= amplitude;
-            audioTrack.add(sample);
+            samples.append(sample);
         }
     }
 
 
     public AudioEngine(Context context) {
         this.context = context;
+        sampleRate = nativeSampleRate();
         initializeAudioTrack();
+        samples = createSampleStore(context, trackFloat);
         initializeFilter();
         Log.d(TAG, "AudioEngine initialized");
         visualEngine = VisualEngine.getInstance();
     }
 
+    // Playing at the output's own rate keeps the system resampler, and the latency and
+    // CPU it costs on every block, out of the path. Usually 48 kHz.
+    private static int nativeSampleRate() {
+        int rate = AudioTrack.getNativeOutputSampleRate(AudioManager.STREAM_MUSIC);
+        return rate > 0 ? rate : FALLBACK_SAMPLE_RATE;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    // Takes spill to an app private file so their length isn't bounded by the heap.
+    // Falls back to the heap if the file can't be created. With float output the take is
+    // kept as float too, so playback reads it without converting.
+    private static SampleStore createSampleStore(Context context, boolean floatSamples) {
+        try {
+            return new SampleStore(new File(context.getFilesDir(), SPILL_FILE).toPath(), floatSamples);
+        } catch (IOException e) {
+            Log.e(TAG, "Spill file unavailable, keeping takes on the heap", e);
+            return new SampleStore(floatSamples);
+        }
+    }
+
+    // Whether takes can outgrow the heap (see AudioCapture's recording limit)
+    public boolean hasSpillStorage() {
+        return samples.isSpilled();
+    }
+
+    // Min/max overview of the current take for waveform drawing, kept up to date by
+    // appendBuffer and imports as they go
+    public PeakPyramid getPeaks() {
+        return samples.getPeaks();
+    }
+
+    // Renders the whole take with the current EQ settings to a WAV or raw file on every
+    // core (see ParallelExporter). Blocks until done, call it off the UI thread.
+    public long export(Path out, ParallelExporter.Format format) throws IOException {
+        return new ParallelExporter(eq).export(samples, out, format);
+    }
+
     public static synchronized AudioEngine getInstance(Context context) {
         if (instance == null) {
             instance = new AudioEngine(context.getApplicationContext());
@@ -78,130 +146,167 @@ public class AudioEngine {
         return instance;
     }
 
-    // Adds audio samples to audioTrack
-    public synchronized void appendBuffer(short[] buffer) {
-        for (short value : buffer) {
-            float normalized = value / 32768f;  // Convert PCM16 to float
-            audioTrack.add(normalized);
+    // Streams source into a new take on a background thread. listener.onReady fires once
+    // the first IMPORT_READY_MS are in; playback can start then and follows the take
+    // as it grows. Callbacks run on the import thread.
+    public synchronized void importFrom(PcmSource source, StreamingImporter.Listener listener) {
+        int sourceChannels = source.getChannels();
+        if (sourceChannels > MAX_CHANNELS) {
+            throw new IllegalArgumentException("Import must have at most " + MAX_CHANNELS
+                    + " channels, got " + sourceChannels);
         }
-    }
+        if (source.getSampleRate() != sampleRate) {
+            // Converted once on the way in, playback never resamples
+            Log.d(TAG, "Resampling import " + source.getSampleRate() + " -> " + sampleRate + " Hz");
+            source = new ResamplingPcmSource(source, sampleRate);
+        }
+        cancelImport();
+        clear(sourceChannels);
+        importing = true;
+        StreamingImporter started = new StreamingImporter(source, samples,
+                sampleRate * IMPORT_READY_MS / 1000 * sourceChannels);
+        importer = started;
+        started.start(new StreamingImporter.Listener() {
+            @Override
+            public void onReady() {
+                listener.onReady();
+            }
 
-    private float[] processFrame(float[] buffer){
-        float[] processedBuffer = new float[buffer.length];
-        for(int i = 0; i < buffer.length; i++){
-            float sample = buffer[i];
+            @Override
+            public void onFinished(int imported) {
+                importDone(started);
+                Log.d(TAG, "Import finished, " + imported + " samples");
+                listener.onFinished(imported);
+            }
 
-            float bass = lowPass.process(sample);
-            float mid = bandPass.process(sample);
-            float treble = highPass.process(sample);
+            @Override
+            public void onError(IOException e) {
+                importDone(started);
+                listener.onError(e);
+            }
+        });
+    }
 
-            //float mid = bandPass.process(bandPass.process(sample));
-            // cascade
+    private synchronized void importDone(StreamingImporter done) {
+        if (importer != done) return; // cancelled and replaced by a newer import
+        importer = null;
+        importing = false;
+    }
 
-            // cascade again
+    // Stops a running import after its current block, the samples so far are kept
+    public synchronized void cancelImport() {
+        if (importer != null) importer.cancel();
+        importer = null;
+        importing = false;
+    }
 
-            float bass_bass = (bass)*bassGain;
-            float mid_mid = (mid)*midGain;
-            float treble_treble = (treble)*trebleGain;
+    // Adds audio samples to audioTrack, interleaved frames of the take's channel count
+    // (see clear(int))
+    public synchronized void appendBuffer(short[] buffer) {
+        samples.append(buffer); // converted once if the take is kept as float
+    }
 
+    // Same for float [-1,1] capture
+    public synchronized void appendBuffer(float[] buffer) {
+        samples.append(buffer);
+    }
 
-//            float bass_bass = lowPass.process(bass)*bassGain;
-//            float mid_mid = bandPass.process(mid)*midGain;
-//            float treble_treble = highPass.process(treble)*trebleGain;
+    // Whether takes are kept as float, i.e. float capture is stored without converting
+    public boolean isFloatPath() {
+        return samples.isFloat();
+    }
 
-            processedBuffer[i] = (float)Math.tanh(bass_bass + mid_mid + treble_treble);
-        }
-        return processedBuffer;
+    // Runs the EQ chain over length samples of buffer, writing into out
+    private void processFrame(float[] buffer, float[] out, int length){
+        eq.process(buffer, out, length); // eq may be swapped by setEqualizer, read it once
     }
     private void initializeFilter(){
-        lowPass = new Filter(SAMPLE_RATE, 200, 0.707, Filter.Type.LOWPASS);
-        bandPass = new Filter(SAMPLE_RATE, 1000, 0.707, Filter.Type.BANDPASS);
-        bandPass2 = new Filter(SAMPLE_RATE, 1000, 0.707, Filter.Type.BANDPASS);
-        highPass = new Filter(SAMPLE_RATE, 6000, 0.707, Filter.Type.HIGHPASS);
+        eq = new EqProcessor(sampleRate, channels, FRAME_SIZE);
 
-
-
-        Log.d(TAG, "Filters initialized: LP=200Hz, BP=1000Hz, HP=3000Hz");
+        Log.d(TAG, "Filters initialized at " + sampleRate + " Hz: LP=200Hz, BP=1000Hz, HP=6000Hz");
     }
     private void resetFilters() {
-        if (lowPass != null) lowPass.reset();
-        if (bandPass != null) bandPass.reset();
-        if (highPass != null) highPass.reset();
+        if (eq != null) eq.reset();
     }
     private void initializeAudioTrack() {
-        // Setup Output Audio
-        int trackBuffer = AudioTrack.getMinBufferSize(
-                SAMPLE_RATE, CHANNEL_CONFIG, AUDIO_FORMAT);
-                track = new AudioTrack.Builder()
-                .setAudioAttributes(new AudioAttributes.Builder()
-                        .setUsage(AudioAttributes.USAGE_MEDIA)
-                        .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
-                        .build())
-                .setAudioFormat(new AudioFormat.Builder()
-                        .setSampleRate(SAMPLE_RATE)
-                        .setEncoding(AUDIO_FORMAT)
-                        .setChannelMask(CHANNEL_CONFIG)
-                        .build())
-                .setBufferSizeInBytes(trackBuffer)
-                .setTransferMode(AudioTrack.MODE_STREAM)
-                .build();
-
-        if (track.getState() != AudioTrack.STATE_INITIALIZED) {
+        // Float all the way out if the device takes it, PCM16 otherwise
+        track = buildTrack(AudioFormat.ENCODING_PCM_FLOAT);
+        trackFloat = track != null;
+        if (track == null) track = buildTrack(AudioFormat.ENCODING_PCM_16BIT);
+        if (track == null) {
             Log.e(TAG, "AudioTrack failed to initialize");
-            track = null;
             return;
         }
-        Log.d(TAG, "Audio initialized successfully");
+        Log.d(TAG, "Audio initialized successfully, " + (trackFloat ? "float" : "PCM16") + " output");
     }
 
-    private short[] convertToShortArray(List<Float> audio) {
-        short[] array = new short[audio.size()];
-        for (int i = 0; i < audio.size(); i++) {
-            float sample = audio.get(i);
-            // clip to -1..1 just in case
-            sample = Math.max(-1f, Math.min(1f, sample));
-            array[i] = (short) (sample * 32767); // convert float [-1,1] → PCM16
+    // Output as wide as the take, null if the device rejects the encoding
+    private AudioTrack buildTrack(int encoding) {
+        int channelMask = channelMask(channels);
+        int trackBuffer = AudioTrack.getMinBufferSize(sampleRate, channelMask, encoding);
+        if (trackBuffer <= 0) return null;
+        AudioTrack candidate;
+        try {
+            candidate = new AudioTrack.Builder()
+                    .setAudioAttributes(new AudioAttributes.Builder()
+                            .setUsage(AudioAttributes.USAGE_MEDIA)
+                            .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+                            .build())
+                    .setAudioFormat(new AudioFormat.Builder()
+                            .setSampleRate(sampleRate)
+                            .setEncoding(encoding)
+                            .setChannelMask(channelMask)
+                            .build())
+                    .setBufferSizeInBytes(trackBuffer)
+                    .setTransferMode(AudioTrack.MODE_STREAM)
+                    .build();
+        } catch (UnsupportedOperationException e) {
+            return null;
+        }
+        if (candidate.getState() != AudioTrack.STATE_INITIALIZED) {
+            candidate.release();
+            return null;
         }
-        return array;
+        return candidate;
     }
 
-    public void startPlaybackLoop() {
-        synchronized (pauseLock) {
-            isPaused = false;
-            pauseLock.notifyAll();
+    private static int channelMask(int channels) {
+        switch (channels) {
+            case 1: return AudioFormat.CHANNEL_OUT_MONO;
+            case 2: return AudioFormat.CHANNEL_OUT_STEREO;
+            case 4: return AudioFormat.CHANNEL_OUT_QUAD;
+            case 6: return AudioFormat.CHANNEL_OUT_5POINT1;
+            case 8: return AudioFormat.CHANNEL_OUT_7POINT1_SURROUND;
+            default: throw new IllegalArgumentException("No output layout for " + channels + " channels");
         }
+    }
+
+    public void startPlaybackLoop() {
+        stopMonitoring(); // the two don't share the EQ
 
-        // Initialize track if needed
+        // Initialize track if needed, or again if the take's width changed
+        if (track != null && track.getChannelCount() != channels) {
+            track.release();
+            track = null;
+        }
         if (track == null) {
             initializeAudioTrack();
         }
 
-        if (audioTrack == null || audioTrack.isEmpty()) {
+        if (samples.isEmpty()) {
             Log.d(TAG, "Nothing to play");
             return; // nothing to play
         }
 
-        // Initialize buffer if not done yet
-        if (buffer == null || buffer.length == 0) {
-            buffer = convertToShortArray(audioTrack);
-            if (buffer == null || buffer.length == 0) {
-                Log.d(TAG, "Buffer is empty after conversion, cannot play");
-                return;
-            }
-            totalSamples = buffer.length;
-            bufferPosition = 0;
-            Log.d(TAG, "Buffer initialized, totalSamples=" + totalSamples);
-        }
+        // clear() already rewound bufferPosition for a new take; the length is followed
+        // by the audio worker since the take may still be growing
+        totalFrames = samples.frames();
+        Log.d(TAG, "Playback initialized, totalFrames=" + totalFrames + ", channels=" + channels);
 
         // Already playing? just resume
         if (isPlaying) {
-            if (isPaused) {
-                isPaused = false;
-                synchronized (pauseLock) {
-                    pauseLock.notifyAll();
-                }
-            }
-            return; // thread already running
+            worker.resume();
+            return;
         }
 
         isPlaying = true;
@@ -210,92 +315,240 @@ public class AudioEngine {
         Log.d(TAG, "Starting playback loop");
 
         track.play();
-
-        playbackThread = new Thread(() -> {
-            int frameSize = 1024;
-            while (isPlaying) {
-
-                synchronized (pauseLock) {
-                    while (isPaused) {
-                        try {
-                            pauseLock.wait();
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            return;
-                        }
-                    }
-                }
-
-                int remaining = buffer.length - bufferPosition;
-                if (remaining <= 0) {
-                    bufferPosition = 0; // loop
-                    remaining = buffer.length;
-                }
-
-                int toWrite = Math.min(frameSize, remaining);
-                short[] frame = new short[toWrite];
-                System.arraycopy(buffer, bufferPosition, frame, 0, toWrite);
-
-                // Process
-                float[] floatFrame = new float[toWrite];
-                for (int i = 0; i < toWrite; i++) floatFrame[i] = frame[i] / 32768f;
-
-                float[] processedFrame = processFrame(floatFrame);
-                visualEngine.processFrame(processedFrame, bufferPosition, totalSamples);
-
-                for (int i = 0; i < toWrite; i++) {
-                    float sample = Math.max(-1f, Math.min(1f, processedFrame[i]));
-                    frame[i] = (short) (sample * 32767);
-                }
-
-                track.write(frame, 0, toWrite);
-                bufferPosition += toWrite;
+        visualEngine.start();
+
+        playChannels = channels; // clear(int) doesn't happen during playback
+        worker.start(new AudioWorker.Task() {
+            @Override
+            public boolean process() {
+                playBlock();
+                return true; // loops until stopped
             }
 
-            track.pause();
-            track.flush();
+            // Also when playBlock threw, so playback can be started again
+            @Override
+            public void onStopped() {
+                isPlaying = false;
+                track.pause();
+                track.flush();
+                visualEngine.stop(); // this was its only producer
+            }
         });
+    }
+
+    // Worker thread: one block from bufferPosition through the EQ and out
+    private void playBlock() {
+        int ch = playChannels;
+        int target = seekTarget.getAndSet(-1);
+        if (target >= 0) applySeek(target);
+
+        totalFrames = samples.frames(); // grows while an import is streaming in
+        int remaining = totalFrames - bufferPosition;
+        if (remaining <= 0) {
+            if (importing) {
+                LockSupport.parkNanos(IMPORT_WAIT_NS); // caught up with the decoder
+                return;
+            }
+            bufferPosition = 0; // loop
+            remaining = totalFrames;
+        }
+
+        int toWrite = Math.min(FRAME_SIZE, remaining);
+        int n = toWrite * ch; // interleaved samples
+
+        // Process
+        samples.read(bufferPosition * ch, floatFrame, 0, n);
+
+        long start = System.nanoTime();
+        processFrame(floatFrame, processedFrame, toWrite);
+        metrics.record(PerfMetrics.Stage.EQ, start);
+        visualEngine.processFrame(processedFrame, toWrite, ch, bufferPosition, totalFrames);
+        metrics.set(PerfMetrics.Counter.DROPPED_ANALYSIS, visualEngine.getDroppedFrames());
+
+        if (fadeIn > 0) fadeIn = fadeIn(processedFrame, toWrite, ch, fadeIn);
+
+        if (!trackFloat) { // a float track gets the EQ's output as is
+            for (int i = 0; i < n; i++) frame[i] = SampleStore.toPcm16(processedFrame[i]);
+        }
+
+        start = System.nanoTime();
+        writeToTrack(n, ch);
+        metrics.record(PerfMetrics.Stage.TRACK_WRITE, start);
+        metrics.set(PerfMetrics.Counter.UNDERRUNS, track.getUnderrunCount());
+        bufferPosition += toWrite;
+    }
+
+    // Writes n samples of the block without blocking in AudioTrack. When its buffer is
+    // full the rest is retried after parking for about half the time it takes to play,
+    // so stopping doesn't wait behind a write stuck in the track.
+    private void writeToTrack(int n, int channels) {
+        int offset = 0;
+        while (offset < n && isPlaying) {
+            int written = trackFloat
+                    ? track.write(processedFrame, offset, n - offset, AudioTrack.WRITE_NON_BLOCKING)
+                    : track.write(frame, offset, n - offset, AudioTrack.WRITE_NON_BLOCKING);
+            if (written < 0) {
+                Log.e(TAG, "AudioTrack write failed: " + written);
+                return;
+            }
+            offset += written;
+            if (offset < n) LockSupport.parkNanos((n - offset) / channels * 500_000_000L / sampleRate);
+        }
+    }
+
+    // Jumps to a frame position. The audio worker applies it before its next block,
+    // so the jump is heard one block (plus the track's buffer) later; when not playing it
+    // applies on the next start. Seeks that arrive faster than blocks (scrubbing) just
+    // replace each other.
+    public void seekTo(int position) {
+        seekTarget.set(Math.max(0, Math.min(position, samples.frames())));
+    }
+
+    // fraction of the take, 0..1
+    public void seekToFraction(float fraction) {
+        seekTo((int) (fraction * samples.frames()));
+    }
+
+    // Current position, or the pending seek target if there is one
+    public int getPosition() {
+        int target = seekTarget.get();
+        return target >= 0 ? target : bufferPosition;
+    }
+
+    // Worker thread: restarts the EQ from the frames just before target so the filters
+    // hold the state they'd have had playing up to it, then fades the first samples in
+    // since the waveform itself jumps. The pre-roll covers the whole FIR or multirate
+    // history plus SEEK_PREROLL for the biquads to settle, so a long linear phase FIR
+    // costs a few blocks' worth of EQ on the seek.
+    private void applySeek(int target) {
+        EqProcessor current = eq;
+        int ch = playChannels;
+        current.reset();
+        int preroll = SEEK_PREROLL + current.getMemory();
+        for (int pos = Math.max(0, target - preroll); pos < target; pos += FRAME_SIZE) {
+            int n = Math.min(FRAME_SIZE, target - pos);
+            samples.read(pos * ch, floatFrame, 0, n * ch);
+            current.process(floatFrame, processedFrame, n);
+        }
+        bufferPosition = target;
+        fadeIn = SEEK_FADE;
+    }
 
-        playbackThread.start();
+    // Linear fade over the remaining SEEK_FADE frames, returns how many are left
+    private static int fadeIn(float[] buffer, int frames, int channels, int remaining) {
+        int n = Math.min(frames, remaining);
+        for (int i = 0; i < n; i++) {
+            float gain = (float) (SEEK_FADE - remaining + i) / SEEK_FADE;
+            for (int c = 0; c < channels; c++) buffer[i * channels + c] *= gain;
+        }
+        return remaining - n;
     }
 
+    // The worker stops taking blocks after the current one; the track keeps what it has
     public void pausePlaybackLoop() {
         Log.d(TAG, "Pausing playback loop");
-        isPaused = true;
+        if (isPlaying) worker.pause();
     }
 
     public void stopPlaybackLoop() {
         Log.d(TAG, "Stopping playback loop");
 
-        isPlaying = false;
+        boolean wasPlaying = isPlaying;
+        isPlaying = false; // also cuts short a write waiting on the track
+        if (wasPlaying) worker.stop(); // returns once the track is paused and flushed
+        visualEngine.stop(); // after the worker, the only producer, has left the take
 
-        synchronized (pauseLock) {
-            isPaused = false;
-            pauseLock.notifyAll();   // wake thread if waiting
-        }
+        resetFilters();
+    }
 
-        if (playbackThread != null) {
-            try {
-                playbackThread.join();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-            playbackThread = null;
-        }
+    // Live monitoring: mic -> EQ -> speaker on the low latency output path (see
+    // LiveMonitor), with the same EQ and settings as playback. Stops playback first.
+    // Needs RECORD_AUDIO; false if the mic or the output couldn't be opened.
+    public synchronized boolean startMonitoring() {
+        if (isMonitoring()) return true;
+        stopMonitoring(); // one that failed on its own still holds the EQ at its width
+        stopPlaybackLoop();
+        if (monitor == null) monitor = new LiveMonitor(context, this, worker, sampleRate, FRAME_SIZE);
+        eq.reset();
+        return monitor.start();
+    }
 
-        resetFilters();
+    public synchronized void stopMonitoring() {
+        if (monitor == null || !monitor.stop()) return;
+        EqProcessor current = eq;
+        if (current.getChannels() != channels) eq = current.copy(channels, FRAME_SIZE); // back to the take's width
+        current.reset();
+    }
+
+    public boolean isMonitoring() {
+        return monitor != null && monitor.isRunning();
+    }
+
+    // Mic to speaker round trip while monitoring, in ms; NaN until it's been measured
+    public float getMonitorLatencyMs() {
+        return monitor == null ? Float.NaN : monitor.getRoundTripMs();
+    }
+
+    // Makes the EQ width channels wide if it isn't, the mic may not match the take. Called
+    // by LiveMonitor.start() from startMonitoring(), so under the lock and before the
+    // first block; setEqualizer() and clear() keep that width until stopMonitoring().
+    synchronized void fitMonitorEq(int width) {
+        if (eq.getChannels() != width) eq = eq.copy(width, FRAME_SIZE);
+    }
+
+    // The EQ for the monitor's next block, read once per block like playback does so
+    // settings changes reach it. Never copies, fitMonitorEq() sized it.
+    EqProcessor monitorEq() {
+        return eq;
     }
 
     public void setBassGain(float gain){
         Log.d(TAG, "setBassGain: " + gain);
-        bassGain = gain;
+        eq.setBassGain(gain);
     }
     public void setMidGain(float gain){
         Log.d(TAG, "setMidGain: " + gain);
-        midGain = gain;
+        eq.setMidGain(gain);
     }
     public void setTrebleGain(float gain){
         Log.d(TAG, "setTrebleGain: " + gain);
-        trebleGain = gain;
+        eq.setTrebleGain(gain);
+    }
+    // Replaces the EQ, e.g. with FilterBank.graphic31(...). Bank must be designed for
+    // getSampleRate() and take at least FRAME_SIZE frames; one with another channel count
+    // than the take is copied to fit. Picked up by the playback thread on its next block.
+    public synchronized void setEqualizer(FilterBank bank){
+        if (bank.getSampleRate() != sampleRate || bank.getMaxFrames() < FRAME_SIZE) {
+            throw new IllegalArgumentException("EQ bank must run at " + sampleRate
+                    + " Hz with maxFrames >= " + FRAME_SIZE);
+        }
+        Log.d(TAG, "setEqualizer: " + bank.getBandCount() + " bands, " + bank.getTopology());
+        EqProcessor next = new EqProcessor(bank);
+        int width = eq.getChannels(); // the take's, or the mic's while monitoring
+        eq = bank.getChannels() == width ? next : next.copy(width, FRAME_SIZE);
+    }
+    // Linear phase FIR mode for mastering style use. Adds taps / 2 + partitionSize samples
+    // of latency; the FIR is designed here, on the calling thread.
+    public void setLinearPhase(boolean enabled, int taps, int partitionSize){
+        Log.d(TAG, "setLinearPhase: " + enabled + " taps=" + taps + " partition=" + partitionSize);
+        if (enabled) {
+            eq.setLinearPhase(taps, partitionSize);
+        } else {
+            eq.setIir();
+        }
+    }
+    // Soft clip oversampling, 1, 2 or 4
+    public void setOversampling(int factor){
+        Log.d(TAG, "setOversampling: " + factor);
+        eq.setOversampling(factor);
+    }
+    public void setBandGain(int band, float gain){
+        eq.setGain(band, gain);
+    }
+    // Band is one of EqProcessor.BAND_LOW / BAND_MID / BAND_HIGH. Safe while playing,
+    // the change is faded in over the next block.
+    public void setBand(int band, double freq, double q, Filter.Type type){
+        Log.d(TAG, "setBand: " + band + " " + freq + "Hz Q=" + q + " " + type);
+        eq.setBand(band, freq, q, type);
     }
 }
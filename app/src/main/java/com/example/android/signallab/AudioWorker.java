@@ -0,0 +1,162 @@
+package com.example.android.signallab;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+// Long lived audio thread at THREAD_PRIORITY_URGENT_AUDIO that runs one Task at a time,
+// a block per call. Start, pause, resume and stop are commands posted to a lock-free
+// mailbox and picked up between blocks; with nothing to run the thread parks, and it
+// stays alive for the next task instead of a new thread per play or recording.
+//
+// Commands come from any thread. stop() and quit() park the caller until the worker
+// has acted on them, so the task's onStopped() has run when they return. Called from a
+// task on the worker itself they take effect right away.
+public final class AudioWorker {
+    private static final String TAG = "AudioWorker";
+
+    public interface Task {
+        // One block of work, false once there's nothing left to do
+        boolean process();
+
+        // Worker thread, after the last block: finished, stopped or replaced
+        default void onStopped() {
+        }
+    }
+
+    private enum Op { START, PAUSE, RESUME, STOP, QUIT }
+
+    private static final class Command {
+        final Op op;
+        final Task task;
+        final Thread waiter; // parked until done, null if nobody waits
+        volatile boolean done;
+
+        Command(Op op, Task task, Thread waiter) {
+            this.op = op;
+            this.task = task;
+            this.waiter = waiter;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Command> mailbox = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean busy; // a task is loaded, running or paused
+
+    // Worker thread only
+    private Task task;
+    private boolean paused;
+    private boolean quit;
+
+    public AudioWorker(String name) {
+        thread = new Thread(this::loop, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Runs task from its next block on, replacing (and stopping) any current one
+    public void start(Task task) {
+        send(Op.START, task, false);
+    }
+
+    // Keeps the task but stops calling it
+    public void pause() {
+        send(Op.PAUSE, null, false);
+    }
+
+    public void resume() {
+        send(Op.RESUME, null, false);
+    }
+
+    // Ends the current task, returns once its onStopped() has run
+    public void stop() {
+        send(Op.STOP, null, true);
+    }
+
+    // Stops the current task and lets the thread end, for owners that go away
+    public void quit() {
+        send(Op.QUIT, null, true);
+    }
+
+    // Whether a task is loaded. Lags start() until the worker has picked it up.
+    public boolean isBusy() {
+        return busy;
+    }
+
+    public boolean isWorkerThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    private void send(Op op, Task task, boolean wait) {
+        if (isWorkerThread()) {
+            apply(new Command(op, task, null));
+            return;
+        }
+        Command command = new Command(op, task, wait ? Thread.currentThread() : null);
+        mailbox.offer(command);
+        LockSupport.unpark(thread);
+        while (wait && !command.done && thread.isAlive()) LockSupport.park(this);
+    }
+
+    private void loop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        while (!quit) {
+            Command command;
+            while ((command = mailbox.poll()) != null) apply(command);
+            if (task != null && !paused) {
+                boolean more;
+                try {
+                    more = task.process();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Task failed", e);
+                    more = false;
+                }
+                if (!more) finish();
+            } else if (!quit) {
+                LockSupport.park(this); // until the next command
+            }
+        }
+        Command left;
+        while ((left = mailbox.poll()) != null) apply(left); // release anyone still waiting
+    }
+
+    private void apply(Command command) {
+        switch (command.op) {
+            case START:
+                finish();
+                task = command.task;
+                busy = true;
+                break;
+            case PAUSE:
+                paused = task != null;
+                break;
+            case RESUME:
+                paused = false;
+                break;
+            case STOP:
+                finish();
+                break;
+            case QUIT:
+                finish();
+                quit = true;
+                break;
+        }
+        command.done = true;
+        if (command.waiter != null) LockSupport.unpark(command.waiter);
+    }
+
+    private void finish() {
+        Task done = task;
+        task = null;
+        paused = false;
+        busy = false;
+        if (done == null) return;
+        try {
+            done.onStopped();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Task failed to stop", e);
+        }
+    }
+}
@@ -1,17 +1,24 @@
 package com.example.android.signallab;
 
+import android.Manifest;
+import android.content.pm.PackageManager;
 import android.media.AudioFormat;
 import android.media.AudioTrack;
 import android.net.Uri;
 import android.os.Bundle;
 import android.util.Log;
+import android.view.MotionEvent;
+import android.view.View;
 import android.widget.Button;
 import android.widget.ProgressBar;
 import android.widget.SeekBar;
+import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
 
-import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class EQActivity extends AppCompatActivity {
     private static final int REQUEST_AUDIO_FILE = 2001;
@@ -19,17 +26,45 @@ public class EQActivity extends AppCompatActivity {
     private AudioEngine audioEngine;
 
     private SeekBar bassBar, midBar, trebleBar;
-    private Button playButton, stopButton, backButton;
+    private Button playButton, stopButton, backButton, monitorButton;
     private ProgressBar progressBar;
     private AudioTrack track;
     private Uri selectedAudioUri;
     // Chosen parameters
-    private static final int SAMPLE_RATE = 44100; // target sample rate
     private static final int CHANNEL_CONFIG = AudioFormat.CHANNEL_OUT_MONO;
     private static final int AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
     private static final float MAX_GAIN = 3.0f;
     private static final float DEFAULT_GAIN = 0f;
     private SpectrumView spectrumView;
+    private TextView perfOverlay;
+    private static final long PERF_REFRESH_MS = 500;
+    private final Runnable perfUpdate = new Runnable() {
+        @Override
+        public void run() {
+            perfOverlay.setText(PerfMetrics.getInstance().snapshot().toString());
+            perfOverlay.postDelayed(this, PERF_REFRESH_MS);
+        }
+    };
+    // Round trip shown on the monitor button while monitoring
+    private final Runnable monitorUpdate = new Runnable() {
+        @Override
+        public void run() {
+            if (!audioEngine.isMonitoring()) { // the mic or output failed
+                stopMonitoring();
+                return;
+            }
+            float ms = audioEngine.getMonitorLatencyMs();
+            monitorButton.setText(Float.isNaN(ms) ? "MONITOR …" : String.format(Locale.US, "MONITOR %.1f ms", ms));
+            monitorButton.postDelayed(this, PERF_REFRESH_MS);
+        }
+    };
+    private volatile float latestProgress;
+    private final AtomicBoolean progressPosted = new AtomicBoolean();
+    private boolean scrubbing; // finger on the progress bar, engine updates are ignored
+    private final Runnable progressUpdate = () -> {
+        progressPosted.set(false);
+        if (!scrubbing) progressBar.setProgress((int)(latestProgress * 100));
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -51,15 +86,25 @@ public class EQActivity extends AppCompatActivity {
         //        audioEngine.generateWhiteNoise(5f,0.05f);
 
         spectrumView = findViewById(R.id.spectrumView);
+        perfOverlay = findViewById(R.id.perfOverlay);
+        spectrumView.setOnLongClickListener(v -> {
+            togglePerfOverlay();
+            return true;
+        });
+        // Tap: cycle what the spectrum shows of a stereo take, mid / side / left / right
+        spectrumView.setOnClickListener(v -> cycleAnalysisChannel(visualEngine));
 
         //Play, select, stop buttons are not ready.
         playButton = findViewById(R.id.play);
         stopButton = findViewById(R.id.stop);
         backButton = findViewById(R.id.backButton);
+        monitorButton = findViewById(R.id.monitorButton);
 
         playButton.setOnClickListener(v -> startPlayBack());
         stopButton.setOnClickListener(v -> pausePlayBack());
+        monitorButton.setOnClickListener(v -> toggleMonitoring());
         backButton.setOnClickListener(v -> {
+            stopMonitoring();
             stopPlayBack();
             audioEngine.clear();
             finish();
@@ -69,20 +114,77 @@ public class EQActivity extends AppCompatActivity {
 
         seekBarListener();
 
-        visualEngine.setSpectrumListener(spectrum -> {
-            Log.d(TAG, "Received spectrum: " + Arrays.toString(spectrum));
-            runOnUiThread(() -> {
-                spectrumView.updateSpectrum(spectrum);
-            });
-        });
+        progressBar.setOnTouchListener((v, event) -> scrub(event));
 
+        // The view pulls the newest spectrum once per vsync, nothing is posted per block
+        spectrumView.setSource(visualEngine.getSpectra());
+        spectrumView.setSampleRate(audioEngine.getSampleRate());
+
+        // Runs on the analysis thread: at most one progress update is queued on the UI
+        // thread at a time, later values just overwrite latestProgress
         visualEngine.setProgressListener(progress -> {
-            Log.d(TAG, "Progress: " + progress);
-            runOnUiThread(() -> {
-                progressBar.setProgress((int)(progress * 100));
-            });
+            latestProgress = progress;
+            if (progressPosted.compareAndSet(false, true)) runOnUiThread(progressUpdate);
         });
     }
+    @Override
+    protected void onPause() {
+        stopMonitoring(); // the mic isn't left open in the background
+        super.onPause();
+    }
+
+    @Override
+    protected void onDestroy() {
+        perfOverlay.removeCallbacks(perfUpdate);
+        super.onDestroy();
+    }
+
+    // Shows / hides the pipeline metrics, refreshed twice a second while visible
+    private void togglePerfOverlay() {
+        if (perfOverlay.getVisibility() == View.VISIBLE) {
+            perfOverlay.removeCallbacks(perfUpdate);
+            perfOverlay.setVisibility(View.GONE);
+        } else {
+            perfOverlay.setVisibility(View.VISIBLE);
+            perfUpdate.run();
+        }
+    }
+
+    // Mic -> EQ -> speaker. Playback stops while it runs; headphones avoid feedback.
+    private void toggleMonitoring() {
+        if (audioEngine.isMonitoring()) {
+            stopMonitoring();
+            return;
+        }
+        if (checkSelfPermission(Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) {
+            Toast.makeText(this, "Monitoring needs the microphone permission", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        stopPlayBack();
+        if (!audioEngine.startMonitoring()) {
+            Toast.makeText(this, "Monitoring unavailable", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        playButton.setEnabled(false);
+        playButton.setAlpha(0.5f);
+        monitorUpdate.run();
+    }
+
+    private void stopMonitoring() {
+        monitorButton.removeCallbacks(monitorUpdate);
+        audioEngine.stopMonitoring(); // also clears a monitor that failed on its own
+        monitorButton.setText("MONITOR");
+        playButton.setEnabled(true);
+        playButton.setAlpha(1);
+    }
+
+    private void cycleAnalysisChannel(VisualEngine visualEngine) {
+        VisualEngine.AnalysisChannel[] modes = VisualEngine.AnalysisChannel.values();
+        VisualEngine.AnalysisChannel next = modes[(visualEngine.getAnalysisChannel().ordinal() + 1) % modes.length];
+        visualEngine.setAnalysisChannel(next);
+        Toast.makeText(this, "Spectrum: " + next, Toast.LENGTH_SHORT).show();
+    }
+
     private void startPlayBack() {
         runOnUiThread(() -> {
             playButton.setEnabled(false);
@@ -116,6 +218,29 @@ public class EQActivity extends AppCompatActivity {
         audioEngine.stopPlaybackLoop();
     }
 
+    // Touch scrubbing on the progress bar: every move seeks, the engine only applies the
+    // newest one per audio block
+    private boolean scrub(MotionEvent event) {
+        float fraction = Math.max(0f, Math.min(1f, event.getX() / progressBar.getWidth()));
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                scrubbing = true;
+                // fall through
+            case MotionEvent.ACTION_MOVE:
+                progressBar.setProgress((int)(fraction * 100));
+                audioEngine.seekToFraction(fraction);
+                return true;
+            case MotionEvent.ACTION_UP:
+                progressBar.performClick();
+                // fall through
+            case MotionEvent.ACTION_CANCEL:
+                scrubbing = false;
+                return true;
+            default:
+                return false;
+        }
+    }
+
     private void seekBarListener() {
 
         SeekBar.OnSeekBarChangeListener listener = new SeekBar.OnSeekBarChangeListener() {
@@ -0,0 +1,304 @@
+package com.example.android.signallab;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioRecord;
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+import android.media.MediaRecorder;
+import android.util.Log;
+
+// Live monitoring: mic -> EQ -> speaker, one burst at a time. The output asks for the
+// low latency (fast mixer) path and is trimmed to two bursts of buffer, the mic is opened
+// as VOICE_PERFORMANCE, which is meant for exactly this, with about as little buffer.
+//
+// The round trip is measured from the two streams' timestamps: when the newest frame
+// read was captured, and when the same frame, written after the EQ, will be presented.
+// That covers every buffer on the way but not the converters and transducers, which
+// usually add a millisecond or two.
+//
+// Owned by AudioEngine, which hands out the EQ and makes sure playback isn't running;
+// the blocks run on the engine's AudioWorker, which playback uses otherwise.
+public class LiveMonitor {
+    private static final String TAG = "LiveMonitor";
+    private static final int FALLBACK_BURST = 192; // frames, 4 ms at 48 kHz
+    private static final int TRACK_BURSTS = 2;     // output buffer, one playing and one filling
+    private static final int RECORD_BURSTS = 2;
+    private static final int MEASURE_EVERY = 16;   // blocks between latency readings
+
+    private final AudioEngine engine;
+    private final AudioWorker worker;
+    private final int sampleRate;
+    private final int burst;       // frames per block, the output's burst
+    private final boolean useFloat;
+
+    private AudioRecord record;
+    private AudioTrack track;
+    private boolean recordFloat;
+    private boolean trackFloat;
+    private int channels;
+    private boolean opened;           // started and not yet stopped, caller's thread
+    private volatile boolean running; // blocks are going through, false once stopped or failed
+    private volatile long roundTripNanos = -1;
+    private final AudioTimestamp inStamp = new AudioTimestamp();
+    private final AudioTimestamp outStamp = new AudioTimestamp();
+    private final PerfMetrics metrics = PerfMetrics.getInstance();
+
+    // Worker thread, set up by start()
+    private float[] in;
+    private float[] out;
+    private short[] pcm;   // PCM16 side, if either end isn't float
+    private long frames;   // read, and after the EQ written, since start
+    private int blocks;
+
+    LiveMonitor(Context context, AudioEngine engine, AudioWorker worker, int sampleRate, int maxFrames) {
+        this.engine = engine;
+        this.worker = worker;
+        this.sampleRate = sampleRate;
+        this.burst = Math.min(outputBurst(context), maxFrames);
+        this.useFloat = engine.isFloatPath();
+    }
+
+    // Frames the output mixer pulls at a time, what the fast path is paced by
+    private static int outputBurst(Context context) {
+        AudioManager manager = context.getSystemService(AudioManager.class);
+        String value = manager == null ? null : manager.getProperty(AudioManager.PROPERTY_OUTPUT_FRAMES_PER_BUFFER);
+        try {
+            return value == null ? FALLBACK_BURST : Math.max(1, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            return FALLBACK_BURST;
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Round trip of a recent block, mic to speaker, in ms. NaN until the first reading.
+    public float getRoundTripMs() {
+        long nanos = roundTripNanos;
+        return nanos < 0 ? Float.NaN : nanos / 1e6f;
+    }
+
+    // Opens both ends and starts monitoring on the worker, false if either can't be opened.
+    // Needs RECORD_AUDIO.
+    boolean start() {
+        if (opened) return running;
+        try {
+            // stereo if the mic can do it, mono otherwise
+            record = openRecord(AudioFormat.CHANNEL_IN_STEREO);
+            if (record == null) record = openRecord(AudioFormat.CHANNEL_IN_MONO);
+        } catch (SecurityException e) {
+            Log.e(TAG, "Permission missing: " + e.getMessage());
+        }
+        if (record == null) {
+            Log.e(TAG, "AudioRecord failed to initialize");
+            return false;
+        }
+        channels = record.getChannelCount();
+        track = openTrack(channels);
+        if (track == null) {
+            Log.e(TAG, "AudioTrack failed to initialize");
+            release();
+            return false;
+        }
+        Log.d(TAG, "Monitoring " + channels + " ch at " + sampleRate + " Hz, burst " + burst
+                + ", track buffer " + track.getBufferSizeInFrames() + " frames, "
+                + (track.getPerformanceMode() == AudioTrack.PERFORMANCE_MODE_LOW_LATENCY ? "low latency" : "normal")
+                + " path, " + (recordFloat ? "float" : "PCM16") + " in, " + (trackFloat ? "float" : "PCM16") + " out");
+
+        engine.fitMonitorEq(channels); // sized here rather than on the audio thread
+        int n = burst * channels;
+        in = new float[n];
+        out = new float[n];
+        pcm = recordFloat && trackFloat ? null : new short[n];
+        frames = 0;
+        blocks = 0;
+        roundTripNanos = -1;
+        opened = true;
+        running = true;
+        record.startRecording();
+        track.play();
+        worker.start(new AudioWorker.Task() {
+            @Override
+            public boolean process() {
+                return monitorBlock();
+            }
+
+            // Also after a failed read or write, so the streams don't outlive the blocks
+            @Override
+            public void onStopped() {
+                running = false;
+                record.stop();
+                track.pause();
+                track.flush();
+                release();
+            }
+        });
+        return true;
+    }
+
+    // Ends monitoring, returns once the streams are released. False if it wasn't started.
+    // Also needed after the monitor failed on its own, to clear it for the next start().
+    boolean stop() {
+        if (!opened) return false;
+        opened = false;
+        // Only keeps readBlock from asking again: a READ_BLOCKING read in progress isn't
+        // interrupted, worker.stop() waits for it, at most a burst
+        running = false;
+        worker.stop();
+        return true;
+    }
+
+    private void release() {
+        if (record != null) {
+            record.release();
+            record = null;
+        }
+        if (track != null) {
+            track.release();
+            track = null;
+        }
+    }
+
+    // Float if the engine runs float and the mic takes it, PCM16 otherwise
+    private AudioRecord openRecord(int channelMask) {
+        if (useFloat) {
+            AudioRecord candidate = buildRecord(channelMask, AudioFormat.ENCODING_PCM_FLOAT);
+            recordFloat = candidate != null;
+            if (candidate != null) return candidate;
+        }
+        return buildRecord(channelMask, AudioFormat.ENCODING_PCM_16BIT);
+    }
+
+    private AudioRecord buildRecord(int channelMask, int encoding) {
+        int minBuffer = AudioRecord.getMinBufferSize(sampleRate, channelMask, encoding);
+        if (minBuffer <= 0) return null;
+        int frameBytes = (encoding == AudioFormat.ENCODING_PCM_FLOAT ? 4 : 2)
+                * (channelMask == AudioFormat.CHANNEL_IN_STEREO ? 2 : 1);
+        AudioRecord candidate;
+        try {
+            candidate = new AudioRecord.Builder()
+                    .setAudioSource(MediaRecorder.AudioSource.VOICE_PERFORMANCE)
+                    .setAudioFormat(new AudioFormat.Builder()
+                            .setSampleRate(sampleRate)
+                            .setEncoding(encoding)
+                            .setChannelMask(channelMask)
+                            .build())
+                    .setBufferSizeInBytes(Math.max(minBuffer, RECORD_BURSTS * burst * frameBytes))
+                    .build();
+        } catch (UnsupportedOperationException e) {
+            return null;
+        }
+        if (candidate.getState() != AudioRecord.STATE_INITIALIZED) {
+            candidate.release();
+            return null;
+        }
+        return candidate;
+    }
+
+    private AudioTrack openTrack(int channels) {
+        AudioTrack candidate = null;
+        if (useFloat) candidate = buildTrack(channels, AudioFormat.ENCODING_PCM_FLOAT);
+        trackFloat = candidate != null;
+        if (candidate == null) candidate = buildTrack(channels, AudioFormat.ENCODING_PCM_16BIT);
+        if (candidate != null) {
+            // The minimum buffer is sized for the normal mixer; the fast one runs on less
+            candidate.setBufferSizeInFrames(TRACK_BURSTS * burst);
+        }
+        return candidate;
+    }
+
+    private AudioTrack buildTrack(int channels, int encoding) {
+        int channelMask = channels == 2 ? AudioFormat.CHANNEL_OUT_STEREO : AudioFormat.CHANNEL_OUT_MONO;
+        int minBuffer = AudioTrack.getMinBufferSize(sampleRate, channelMask, encoding);
+        if (minBuffer <= 0) return null;
+        AudioTrack candidate;
+        try {
+            candidate = new AudioTrack.Builder()
+                    .setAudioAttributes(new AudioAttributes.Builder()
+                            .setUsage(AudioAttributes.USAGE_MEDIA)
+                            .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+                            .build())
+                    .setAudioFormat(new AudioFormat.Builder()
+                            .setSampleRate(sampleRate)
+                            .setEncoding(encoding)
+                            .setChannelMask(channelMask)
+                            .build())
+                    .setBufferSizeInBytes(minBuffer)
+                    .setTransferMode(AudioTrack.MODE_STREAM)
+                    .setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY)
+                    .build();
+        } catch (UnsupportedOperationException e) {
+            return null;
+        }
+        if (candidate.getState() != AudioTrack.STATE_INITIALIZED) {
+            candidate.release();
+            return null;
+        }
+        return candidate;
+    }
+
+    // Worker thread: one burst in, through the EQ and out. False if either stream failed.
+    private boolean monitorBlock() {
+        int n = burst * channels;
+        if (!readBlock(in, pcm, n)) return false;
+
+        long start = System.nanoTime();
+        engine.monitorEq().process(in, out, burst); // read once per block, may be swapped
+        metrics.record(PerfMetrics.Stage.EQ, start);
+
+        if (!writeBlock(out, pcm, n)) return false;
+        frames += burst;
+        metrics.set(PerfMetrics.Counter.UNDERRUNS, track.getUnderrunCount());
+        if (++blocks % MEASURE_EVERY == 0) measure(frames);
+        return true;
+    }
+
+    // Blocks for a whole burst from the mic, as float
+    private boolean readBlock(float[] in, short[] pcm, int n) {
+        int got = 0;
+        while (got < n && running) {
+            int read = recordFloat
+                    ? record.read(in, got, n - got, AudioRecord.READ_BLOCKING)
+                    : record.read(pcm, got, n - got, AudioRecord.READ_BLOCKING);
+            if (read < 0) {
+                Log.e(TAG, "AudioRecord read failed: " + read);
+                return false;
+            }
+            got += read;
+        }
+        if (!recordFloat) {
+            for (int i = 0; i < n; i++) in[i] = pcm[i] / 32768f;
+        }
+        return got == n;
+    }
+
+    private boolean writeBlock(float[] out, short[] pcm, int n) {
+        if (!trackFloat) {
+            for (int i = 0; i < n; i++) pcm[i] = SampleStore.toPcm16(out[i]);
+        }
+        int written = trackFloat
+                ? track.write(out, 0, n, AudioTrack.WRITE_BLOCKING)
+                : track.write(pcm, 0, n, AudioTrack.WRITE_BLOCKING);
+        if (written < 0) {
+            Log.e(TAG, "AudioTrack write failed: " + written);
+            return false;
+        }
+        return true;
+    }
+
+    // Both timestamps extrapolated to frame `frames`: presented minus captured. Skipped
+    // until both streams report one, which takes a few blocks after starting.
+    private void measure(long frames) {
+        if (record.getTimestamp(inStamp, AudioTimestamp.TIMEBASE_MONOTONIC) != AudioRecord.SUCCESS) return;
+        if (!track.getTimestamp(outStamp)) return;
+        long captured = inStamp.nanoTime + (frames - inStamp.framePosition) * 1_000_000_000L / sampleRate;
+        long presented = outStamp.nanoTime + (frames - outStamp.framePosition) * 1_000_000_000L / sampleRate;
+        long roundTrip = presented - captured;
+        roundTripNanos = roundTrip;
+        metrics.recordNanos(PerfMetrics.Stage.ROUND_TRIP, roundTrip);
+    }
+}
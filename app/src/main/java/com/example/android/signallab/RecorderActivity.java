@@ -41,7 +41,7 @@ public class RecorderActivity extends AppCompatActivity {
     private AudioRecord record;
     private AudioTrack track;
     private volatile boolean isRecording = false;
-    private Thread recordingThread;
+    private final AudioWorker recordWorker = new AudioWorker("RecorderActivity");
 
     private static final int SAMPLE_RATE = 48000;
     private static final int BUFFER_SIZE = 1024;
@@ -95,6 +95,12 @@ public class RecorderActivity extends AppCompatActivity {
         super.onPause();
     }
 
+    @Override
+    protected void onDestroy() {
+        recordWorker.quit();
+        super.onDestroy();
+    }
+
     private void checkAndRequestPermissions() {
         if (ActivityCompat.checkSelfPermission(this, Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) {
             ActivityCompat.requestPermissions(this,
@@ -196,8 +202,7 @@ public class RecorderActivity extends AppCompatActivity {
         record.startRecording();
         track.play();
 
-        recordingThread = new Thread(this::recordLoop);
-        recordingThread.start();
+        recordWorker.start(this::recordBlock);
 
         runOnUiThread(() -> {
             recordingIndicator.setVisibility(View.VISIBLE);
@@ -206,10 +211,11 @@ public class RecorderActivity extends AppCompatActivity {
     }
 
 
-    private void recordLoop() {
-        while (isRecording) {
+    // One read, copy and write per call on the audio worker
+    private boolean recordBlock() {
+            if (!isRecording) return false;
             int read = record.read(inBuffer, 0, BUFFER_SIZE);
-            if (read <= 0) continue;
+            if (read <= 0) return true;
 
 
             // Convert byte buffer to short buffer
@@ -264,7 +270,7 @@ public class RecorderActivity extends AppCompatActivity {
             } catch (IOException e) {
                 Log.e(TAG, "Failed to write audio to file", e);
             }
-        }
+            return true;
     }
 
     private void onFrameReady(short[] audioBuffer) {
@@ -279,13 +285,7 @@ public class RecorderActivity extends AppCompatActivity {
             if (track != null && track.getPlayState() == AudioTrack.PLAYSTATE_PLAYING)
                 track.pause();
 
-            if (recordingThread != null) {
-                try {
-                    recordingThread.join();
-                } catch (InterruptedException ignored) {
-                }
-                recordingThread = null;
-            }
+            recordWorker.stop();
 
             if (recordingOutputStream != null) {
                 try {
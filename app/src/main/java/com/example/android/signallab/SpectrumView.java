@@ -1,20 +1,41 @@
 package com.example.android.signallab;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.util.AttributeSet;
+import android.view.Choreographer;
 import android.view.View;
 
-public class SpectrumView extends View {
+public class SpectrumView extends View implements Choreographer.FrameCallback {
 
     private Paint paint = new Paint();
-    private float[] spectrum;
+    private float[] spectrum;     // what onDraw shows, a source slot or pushedSpectrum
+    private float[] pushedSpectrum;
+    private TripleBuffer source; // pulled once per vsync while attached
+    private boolean frameCallbackPosted;
 
     private Paint axisPaint = new Paint();
     private Paint textPaint = new Paint();
 
+    private static final float MIN_FREQ = 20f;
+    private static final float MAX_FREQ = 20000f;
+    private static final double LOG_MIN = Math.log10(MIN_FREQ);
+    private static final double LOG_MAX = Math.log10(MAX_FREQ);
+    private static final float MIN_DB = -40f;
+    private static final float MAX_DB = 20f;
+    private static final float COLUMN_WIDTH = 4f; // one bar per column, same as the stroke
+
+    // Layout, recomputed in onSizeChanged
+    private float plotLeft, plotRight, plotTop, plotBottom;
+    private int[] binColumn;   // FFT bin -> column, -1 when off the plot
+    private float[] columnMax; // per column scratch, max dB of its bins
+    private float[] lines;     // drawLines batch, 4 floats per bar
+    private Bitmap axes;       // axes and labels, drawn once per size
+    private float sampleRate = 48000f; // of the spectra shown, for bin -> Hz
+
     public SpectrumView(Context context) {
         super(context);
         init();
@@ -32,7 +53,7 @@ public class SpectrumView extends View {
 
     private void init() {
         paint.setColor(Color.parseColor("#24a335")); // nice orange
-        paint.setStrokeWidth(4f);
+        paint.setStrokeWidth(COLUMN_WIDTH);
         paint.setAntiAlias(true);
 
         axisPaint.setColor(Color.WHITE);
@@ -44,73 +65,163 @@ public class SpectrumView extends View {
         textPaint.setAntiAlias(true);
     }
 
+    // Pull mode: the view takes the newest spectrum from source once per display frame
+    // and only redraws when there is a new one. Call on the UI thread.
+    public void setSource(TripleBuffer source) {
+        this.source = source;
+        if (source != null && isAttachedToWindow()) postFrameCallback();
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameCallbackPosted = false;
+        if (source == null) return;
+        float[] latest = source.poll();
+        if (latest != null) {
+            spectrum = latest; // ours until the next poll, no copy needed
+            invalidate();
+        }
+        postFrameCallback();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (source != null) postFrameCallback();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        Choreographer.getInstance().removeFrameCallback(this);
+        frameCallbackPosted = false;
+        super.onDetachedFromWindow();
+    }
+
+    private void postFrameCallback() {
+        if (frameCallbackPosted) return;
+        frameCallbackPosted = true;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    // Push mode, e.g. for a single snapshot
     public void updateSpectrum(float[] spectrum) {
-        this.spectrum = spectrum;
+        // Copy into our own array, the caller reuses its buffer for the next frame
+        if (pushedSpectrum == null || pushedSpectrum.length != spectrum.length) {
+            pushedSpectrum = new float[spectrum.length];
+        }
+        System.arraycopy(spectrum, 0, pushedSpectrum, 0, spectrum.length);
+        this.spectrum = pushedSpectrum;
         invalidate(); // triggers redraw
     }
 
-    private float freqToXLog(float freq, float canvasWidth, float minFreq, float maxFreq) {
-        freq = Math.max(freq, minFreq); // avoiding log10(0)
-        float logMin = (float) Math.log10(minFreq);
-        float logMax = (float) Math.log10(maxFreq);
-        float logF = (float) Math.log10(freq);
-        return ((logF - logMin) / (logMax - logMin)) * canvasWidth;
+    // x of freq inside the plot, log scale from MIN_FREQ to MAX_FREQ
+    private static float freqToXLog(float freq, float plotWidth) {
+        freq = Math.max(freq, MIN_FREQ); // avoiding log10(0)
+        return (float) ((Math.log10(freq) - LOG_MIN) / (LOG_MAX - LOG_MIN)) * plotWidth;
     }
 
+    private float dbToY(float db) {
+        float normalized = (db - MIN_DB) / (MAX_DB - MIN_DB);
+        normalized = Math.max(0f, Math.min(1f, normalized));
+        return plotBottom - normalized * (plotBottom - plotTop);
+    }
 
     @Override
-    protected void onDraw(Canvas canvas) {
-        super.onDraw(canvas);
-
-        if (spectrum == null) return;
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        plotLeft = 80f;
+        plotRight = w - 20f;
+        plotTop = 20f;
+        plotBottom = h - 60f;
+
+        int columns = Math.max(1, (int) ((plotRight - plotLeft) / COLUMN_WIDTH));
+        columnMax = new float[columns];
+        lines = new float[columns * 4];
+        binColumn = null; // rebuilt for the new width on the next draw
+
+        if (axes != null) axes.recycle();
+        axes = w > 0 && h > 0 ? Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888) : null;
+        if (axes != null) drawAxes(new Canvas(axes), h);
+    }
 
-        float width = getWidth();
-        float height = getHeight();
+    // Rate the spectra were taken at, AudioEngine.getSampleRate()
+    public void setSampleRate(float sampleRate) {
+        this.sampleRate = sampleRate;
+        binColumn = null;
+        invalidate();
+    }
 
-        float plotLeft = 80f;
-        float plotRight = width - 20f;
-        float plotTop = 20f;
-        float plotBottom = height - 60f;
+    // Which column each FFT bin lands in, -1 above MAX_FREQ. Only redone when the width
+    // or the FFT size changes, so onDraw needs no log10 at all.
+    private void buildBinColumns(int bins) {
+        binColumn = new int[bins];
         float plotWidth = plotRight - plotLeft;
+        int fftSize = bins * 2; // the spectrum holds the bins up to Nyquist
+        for (int i = 0; i < bins; i++) {
+            float freq = i * sampleRate / fftSize; // bin to Hz
+            if (freq > MAX_FREQ) {
+                binColumn[i] = -1;
+                continue;
+            }
+            int column = (int) (freqToXLog(freq, plotWidth) / COLUMN_WIDTH);
+            binColumn[i] = Math.min(column, columnMax.length - 1);
+        }
+    }
 
-        float minDb = -40f;
-        float maxDb = 20f;
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
 
-        float sampleRate = 44100f;       // or whatever your AudioEngine uses
-        int fftSize = spectrum.length * 2; // assuming real+imaginary FFT bins are half
-        for (int i = 0; i < spectrum.length; i++) {
-            float freq = i * sampleRate / fftSize; // bin to Hz
-            float x = plotLeft + freqToXLog(freq, plotWidth, 20f, 20000f);
+        float[] spectrum = this.spectrum;
+        if (spectrum == null || columnMax == null) return;
+        if (binColumn == null || binColumn.length != spectrum.length) buildBinColumns(spectrum.length);
 
-            float normalized = (spectrum[i] - minDb) / (maxDb - minDb);
-            normalized = Math.max(0f, Math.min(1f, normalized));
-            float barHeight = normalized * (plotBottom - plotTop);
+        // Loudest bin per column: high bins pile into a few columns, low ones are sparse
+        float[] max = columnMax;
+        java.util.Arrays.fill(max, Float.NEGATIVE_INFINITY);
+        int[] columnOf = binColumn;
+        for (int i = 0; i < spectrum.length; i++) {
+            int c = columnOf[i];
+            if (c >= 0 && spectrum[i] > max[c]) max[c] = spectrum[i];
+        }
 
-            canvas.drawLine(x, plotBottom, x, plotBottom - barHeight, paint);
+        // One drawLines call for all bars
+        int n = 0;
+        for (int c = 0; c < max.length; c++) {
+            if (max[c] == Float.NEGATIVE_INFINITY) continue;
+            float x = plotLeft + (c + 0.5f) * COLUMN_WIDTH;
+            lines[n++] = x;
+            lines[n++] = plotBottom;
+            lines[n++] = x;
+            lines[n++] = dbToY(max[c]);
         }
+        if (n > 0) canvas.drawLines(lines, 0, n, paint);
+
+        if (axes != null) canvas.drawBitmap(axes, 0f, 0f, null);
+    }
+
+    // Axes, ticks and labels never change for a given size, drawn once per size
+    private void drawAxes(Canvas canvas, int height) {
+        float plotWidth = plotRight - plotLeft;
         canvas.drawLine(plotLeft, plotBottom, plotRight, plotBottom, axisPaint); // X axis
         canvas.drawLine(plotLeft, plotTop, plotLeft, plotBottom, axisPaint);     // Y axis
 
         // X ticks (Hz) - same log mapping
         float[] xTicks = new float[]{50, 100, 200, 500, 1000, 2000, 5000, 10000};
         for (float hz : xTicks) {
-            float x = plotLeft + freqToXLog(hz, plotWidth, 20f, 20000f);
+            float x = plotLeft + freqToXLog(hz, plotWidth);
             canvas.drawLine(x, plotBottom, x, plotBottom + 10f, axisPaint);
 
             String label = (hz >= 1000) ? ((int)(hz / 1000)) + "k" : String.valueOf((int)hz);
             canvas.drawText(label, x - 16f, height - 15f, textPaint);
         }
 
-        // Y ticks (dB) - using your minDb/maxDb
+        // Y ticks (dB)
         float[] yTicks = new float[]{20f, 0f, -20f, -40f};
         for (float db : yTicks) {
-            float t = (db - minDb) / (maxDb - minDb);
-            t = Math.max(0f, Math.min(1f, t));
-            float y = plotBottom - t * (plotBottom - plotTop);
-
+            float y = dbToY(db);
             canvas.drawLine(plotLeft - 10f, y, plotLeft, y, axisPaint);
             canvas.drawText(((int)db) + " dB", 10f, y + 8f, textPaint);
         }
     }
 }
-
@@ -1,15 +1,15 @@
 package com.example.android.signallab;
 
 import android.content.Context;
-import android.util.Log;
 
-import org.jtransforms.fft.FloatFFT_1D;
-
-import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
 
 public class VisualEngine {
     private static final String TAG = "VisualEngine";
 
+    // Both listeners are called on the analysis thread, once per spectrum. The spectrum
+    // array is reused for the next frame, so listeners that keep it around must copy it.
+    // Views should rather pull from getSpectra() at display rate.
     public interface SpectrumListener {
         void onSpectrumReady(float[] spectrum);
     }
@@ -17,22 +17,41 @@ public class VisualEngine {
     public interface ProgressListener {
         void onProgressReady(float progress);   // 0.0 - 1.0
     }
-    private float[] smoothSpectrum;
-    private static final float SMOOTHING_ALPHA = 0.85f;
 
-    private SpectrumListener listener;
-    private ProgressListener progressListener;
+    // What the spectrum shows of a multichannel take. Mono takes always show their one
+    // channel.
+    public enum AnalysisChannel {
+        MID,    // average of all channels
+        SIDE,   // (left - right) / 2
+        LEFT,   // channel 0
+        RIGHT   // channel 1
+    }
+    private volatile SpectrumListener listener;
+    private volatile ProgressListener progressListener;
     private static VisualEngine instance;
 
-    private static final int FFT_SIZE = 1024;
-    private FloatFFT_1D fft;
-    private float[] fft_buffer;
-    private float[] spectrum;
+    private volatile SpectrumAnalyzer analyzer;
+
+    // The playback thread only copies processed audio into the ring; spectra are computed
+    // on analysisThread. If analysis falls behind, the ring fills up and new blocks are
+    // dropped instead of holding up audio.
+    private static final int HOP = 1024;          // new samples per spectrum
+    private static final int RING_SIZE = 1 << 15; // ~0.7 s at 44.1 kHz
+    private final SpscRingBuffer ring = new SpscRingBuffer(RING_SIZE);
+    private Thread analysisThread;
+    private volatile Thread consumer;             // analysisThread, for the producer to unpark
+    private volatile boolean analyzing;
+    private volatile int position;
+    private volatile int total;
+    private volatile AnalysisChannel analysisChannel = AnalysisChannel.MID;
+    static final int MAX_FRAMES = 1024;           // largest block mixed down at once, AudioEngine's block
+    private final float[] mixdown = new float[MAX_FRAMES]; // producer side, never grown on the audio thread
+
+    // Latest spectrum for views that pull once per display frame (SpectrumView.setSource)
+    private final TripleBuffer spectra = new TripleBuffer();
 
     public VisualEngine() {
-        fft = new FloatFFT_1D(FFT_SIZE);
-        fft_buffer = new float[FFT_SIZE * 2];
-        spectrum = new float[FFT_SIZE / 2];
+        analyzer = new SpectrumAnalyzer();
     }
 
     public static VisualEngine getInstance() {
@@ -42,51 +61,138 @@ public class VisualEngine {
         return instance;
     }
 
-    public void processFrame(float[] buffer, int bufferPosition, int totalSamples) {
+    // Called from the playback thread with frames interleaved frames. Never blocks: the
+    // block is folded down to the analysed channel and queued for the analysis thread, or
+    // dropped if the queue is full. Positions are in frames.
+    public void processFrame(float[] buffer, int frames, int channels, int bufferPosition, int totalFrames) {
+        if (channels == 1) {
+            ring.offer(buffer, 0, frames);
+        } else {
+            AnalysisChannel mode = analysisChannel;
+            // larger blocks go through in MAX_FRAMES pieces
+            for (int done = 0; done < frames; done += MAX_FRAMES) {
+                int n = Math.min(MAX_FRAMES, frames - done);
+                mixDown(buffer, done * channels, n, channels, mode, mixdown);
+                ring.offer(mixdown, 0, n);
+            }
+        }
+        position = bufferPosition + frames;
+        total = totalFrames;
+        Thread t = consumer;
+        if (t != null) LockSupport.unpark(t);
+    }
 
-        float[] padded = new float [FFT_SIZE];
-        int n = Math.min(buffer.length, FFT_SIZE);
-        System.arraycopy(buffer, 0, padded, 0, n);
+    // frames interleaved frames of in from offset, folded into out[0..frames)
+    static void mixDown(float[] in, int offset, int frames, int channels, AnalysisChannel mode, float[] out) {
+        switch (mode) {
+            case LEFT:
+            case RIGHT:
+                int ch = mode == AnalysisChannel.LEFT ? 0 : 1;
+                for (int i = 0, j = offset + ch; i < frames; i++, j += channels) out[i] = in[j];
+                break;
+            case SIDE:
+                for (int i = 0, j = offset; i < frames; i++, j += channels) out[i] = 0.5f * (in[j] - in[j + 1]);
+                break;
+            default:
+                float scale = 1f / channels;
+                for (int i = 0, j = offset; i < frames; i++, j += channels) {
+                    float sum = 0f;
+                    for (int c = 0; c < channels; c++) sum += in[j + c];
+                    out[i] = sum * scale;
+                }
+        }
+    }
 
-        float[] fftResult = computeFFT(padded);
+    // Takes effect with the next block
+    public void setAnalysisChannel(AnalysisChannel channel) {
+        analysisChannel = channel;
+    }
 
-        if (listener != null) {
-            Log.d(TAG, "Spectrum ready: " + Arrays.toString(fftResult));
-            listener.onSpectrumReady(fftResult);
-        }
+    public AnalysisChannel getAnalysisChannel() {
+        return analysisChannel;
+    }
+
+    // Starts the analysis thread, call before the first processFrame
+    public synchronized void start() {
+        if (analysisThread != null) return;
+        analyzing = true;
+        analysisThread = new Thread(this::analysisLoop, "SpectrumAnalysis");
+        consumer = analysisThread;
+        analysisThread.start();
+    }
 
-        if (progressListener != null && totalSamples > 0) {
-            float progress = (float) bufferPosition / totalSamples;
-            progressListener.onProgressReady(progress);
+    // Stops the analysis thread. Call after the producer has stopped, the queued samples
+    // are discarded.
+    public synchronized void stop() {
+        if (analysisThread == null) return;
+        analyzing = false;
+        LockSupport.unpark(analysisThread);
+        try {
+            analysisThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        analysisThread = null;
+        consumer = null;
+        ring.clear();
     }
 
+    // Pull side of the spectrum delivery, read it from one thread only (the UI thread)
+    public TripleBuffer getSpectra() {
+        return spectra;
+    }
 
-    private float[] computeFFT(float[] sampleBuffer) {
-        //sampleBuffer is 1024 (zero-pad is done in processFrame)
-        for (int i = 0; i < FFT_SIZE; i++) {
-            float window = 0.5f - 0.5f * (float) Math.cos(2 * Math.PI * i / (FFT_SIZE - 1) ); //Hanning
-            fft_buffer[2 * i] = sampleBuffer[i] * window;     // Real part.
-            fft_buffer[2 * i + 1] = 0f;                     //Imaginary part. Real audio IM =0
-        }
-        fft.complexForward(fft_buffer);
-        for (int i = 0; i < FFT_SIZE / 2; i++) {
-            float re = fft_buffer[2 * i];
-            float im = fft_buffer[2 * i + 1];
+    public long getDroppedFrames() {
+        return ring.getDroppedCount();
+    }
 
-            float mag = (float) Math.sqrt(re * re + im * im);
+    private void analysisLoop() {
+        float[] hop = new float[HOP];
+        float[] history = new float[0]; // last fftSize samples, resized when the analyzer changes
 
-            float db = 20f * (float) Math.log10(mag + 1e-9f);
-            spectrum[i] = db;
-        }
-        if(smoothSpectrum == null){
-            smoothSpectrum = spectrum.clone();
-        } else{
-            for (int i = 0; i < spectrum.length; i++) {
-                smoothSpectrum[i] = SMOOTHING_ALPHA * smoothSpectrum[i] + (1 - SMOOTHING_ALPHA) * spectrum[i];
+        while (analyzing) {
+            int available = ring.available();
+            if (available < HOP) {
+                LockSupport.park(this);
+                continue;
+            }
+            // Behind by more than a hop: skip to the newest one, the old spectra are stale
+            if (available >= 2 * HOP) ring.skip(available - available % HOP - HOP);
+            ring.poll(hop, 0, HOP);
+
+            long start = System.nanoTime();
+            SpectrumAnalyzer current = analyzer;
+            int size = current.getFftSize();
+            if (history.length != size) history = new float[size];
+            if (size > HOP) {
+                System.arraycopy(history, HOP, history, 0, size - HOP);
+                System.arraycopy(hop, 0, history, size - HOP, HOP);
+            } else {
+                System.arraycopy(hop, HOP - size, history, 0, size);
+            }
+            float[] fftResult = current.computeFFT(history, size);
+            System.arraycopy(fftResult, 0, spectra.writeBuffer(fftResult.length), 0, fftResult.length);
+            spectra.publish();
+            PerfMetrics.getInstance().record(PerfMetrics.Stage.ANALYSIS, start);
+
+            SpectrumListener spectrumListener = listener;
+            if (spectrumListener != null) {
+                spectrumListener.onSpectrumReady(fftResult);
+            }
+
+            ProgressListener progress = progressListener;
+            int totalSamples = total;
+            if (progress != null && totalSamples > 0) {
+                progress.onProgressReady((float) position / totalSamples);
             }
         }
-        return smoothSpectrum.clone();
+    }
+
+    // Swaps in an analyzer with a different FFT size / window. Picked up on the next frame.
+    public void configureAnalyzer(int fftSize, SpectrumAnalyzer.Window window) {
+        SpectrumAnalyzer current = analyzer;
+        if (current.getFftSize() == fftSize && current.getWindowType() == window) return;
+        analyzer = new SpectrumAnalyzer(fftSize, window);
     }
 
     public void setSpectrumListener(SpectrumListener listener) {
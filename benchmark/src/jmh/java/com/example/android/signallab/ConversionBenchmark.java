@@ -0,0 +1,75 @@
+package com.example.android.signallab;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+// PCM conversions around the EQ: reading PCM16 blocks out of SampleStore as float
+// (what replaced convertToShortArray) and float -> clipped PCM16 before track.write.
+// spill = true reads from a file mapped store instead of the heap, floatStore = true from
+// a store that keeps float samples (the float output path). Scores are ns/sample.
+@State(Scope.Thread)
+public class ConversionBenchmark {
+    static final int SAMPLES = 65536;
+
+    @Param({"64", "256", "1024", "4096"})
+    int blockSize;
+
+    @Param({"SILENCE", "WHITE_NOISE", "SINE"})
+    Signal signal;
+
+    @Param({"false", "true"})
+    boolean spill;
+
+    @Param({"false", "true"})
+    boolean floatStore;
+
+    private SampleStore store;
+    private float[] floatFrame;
+    private short[] shortFrame;
+
+    @Setup
+    public void setup() throws IOException {
+        store = spill ? new SampleStore(Files.createTempFile("samples", ".pcm"), floatStore)
+                : new SampleStore(floatStore);
+        float[] input = new float[SAMPLES];
+        signal.fill(input);
+        for (float sample : input) store.append(sample);
+        floatFrame = new float[blockSize];
+        shortFrame = new short[blockSize];
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        store.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void readFloat(Blackhole bh) {
+        for (int pos = 0; pos < SAMPLES; pos += blockSize) {
+            store.read(pos, floatFrame, 0, blockSize);
+            bh.consume(floatFrame);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void floatToPcm16(Blackhole bh) {
+        for (int pos = 0; pos < SAMPLES; pos += blockSize) {
+            store.read(pos, floatFrame, 0, blockSize);
+            for (int i = 0; i < blockSize; i++) {
+                shortFrame[i] = SampleStore.toPcm16(floatFrame[i]);
+            }
+            bh.consume(shortFrame);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.android.signallab;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+// The whole EqProcessor chain playback runs per block: the default three band FilterBank
+// and the SoftClipper at 1x. The clipper is the Pade tanh, not Math.tanh, and skips
+// blocks under its knee, so SILENCE measures the bank alone plus the peak check while
+// the louder signals include saturation; SoftClipBenchmark has the clipper on its own.
+// Scores are ns/sample.
+@State(Scope.Thread)
+public class EqProcessorBenchmark {
+    static final int SAMPLES = 65536;
+
+    @Param({"64", "256", "1024", "4096"})
+    int blockSize;
+
+    @Param({"SILENCE", "WHITE_NOISE", "SINE"})
+    Signal signal;
+
+    private final float[] input = new float[SAMPLES];
+    private float[] in;
+    private float[] out;
+    private EqProcessor eq;
+
+    @Setup
+    public void setup() {
+        signal.fill(input);
+        in = new float[blockSize];
+        out = new float[blockSize];
+        eq = new EqProcessor(Signal.SAMPLE_RATE, blockSize);
+        eq.setBassGain(1.5f);
+        eq.setMidGain(1.0f);
+        eq.setTrebleGain(2.0f);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void processFrame(Blackhole bh) {
+        for (int off = 0; off < SAMPLES; off += blockSize) {
+            System.arraycopy(input, off, in, 0, blockSize);
+            eq.process(in, out, blockSize);
+            bh.consume(out);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.android.signallab;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+// Whole take export through ParallelExporter, one minute of audio per invocation.
+// threads = 1 is the sequential render; the score should drop roughly with the thread
+// count up to the number of cores. Scores are ns/sample.
+@State(Scope.Benchmark)
+public class ExportBenchmark {
+    static final int SAMPLES = 44100 * 60;
+
+    @Param({"1", "2", "4", "8"})
+    int threads;
+
+    @Param({"THREE_BAND", "GRAPHIC_31"})
+    String bank;
+
+    private SampleStore store;
+    private ForkJoinPool pool;
+    private ParallelExporter exporter;
+    private Path out;
+
+    @Setup
+    public void setup() throws IOException {
+        float[] input = new float[SAMPLES];
+        Signal.WHITE_NOISE.fill(input);
+        store = new SampleStore();
+        for (float sample : input) store.append(sample);
+
+        EqProcessor eq = bank.equals("GRAPHIC_31")
+                ? new EqProcessor(FilterBank.graphic31(44100, 1, 4096))
+                : new EqProcessor(44100, 4096);
+        pool = new ForkJoinPool(threads);
+        exporter = new ParallelExporter(eq, pool);
+        out = Files.createTempFile("export", ".wav");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        pool.shutdown();
+        Files.deleteIfExists(out);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public long export() throws IOException {
+        return exporter.export(store, out, ParallelExporter.Format.WAV);
+    }
+}
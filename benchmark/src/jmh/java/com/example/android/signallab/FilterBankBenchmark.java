@@ -0,0 +1,64 @@
+package com.example.android.signallab;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+// N-band FilterBank throughput. Scores are ns per frame (one sample on every channel);
+// real time at 44.1 kHz leaves ~22700 ns per frame.
+@State(Scope.Thread)
+public class FilterBankBenchmark {
+    static final int FRAMES = 65536;
+    static final int BLOCK = 1024;
+
+    @Param({"3", "10", "31"})
+    int bands;
+
+    @Param({"1", "2"})
+    int channels;
+
+    @Param({"WHITE_NOISE"})
+    Signal signal;
+
+    private float[] input;
+    private float[] block;
+    private float[] out;
+    private FilterBank bank;
+
+    @Setup
+    public void setup() {
+        input = new float[FRAMES * channels];
+        signal.fill(input);
+        block = new float[BLOCK * channels];
+        out = new float[BLOCK * channels];
+        switch (bands) {
+            case 3:
+                bank = FilterBank.threeBand(Signal.SAMPLE_RATE, channels, BLOCK);
+                break;
+            case 10:
+                bank = FilterBank.graphic10(Signal.SAMPLE_RATE, channels, BLOCK);
+                break;
+            default:
+                bank = FilterBank.graphic31(Signal.SAMPLE_RATE, channels, BLOCK);
+        }
+        // Non-flat curve so every section does real work
+        for (int i = 0; i < bank.getBandCount(); i++) {
+            bank.setGain(i, i % 2 == 0 ? 2f : 0.5f);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void process(Blackhole bh) {
+        int stride = BLOCK * channels;
+        for (int off = 0; off < FRAMES * channels; off += stride) {
+            System.arraycopy(input, off, block, 0, stride);
+            bank.process(block, out, BLOCK);
+            bh.consume(out);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.android.signallab;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Single biquad, per sample vs block API. Scores are ns/sample.
+@State(Scope.Thread)
+public class FilterBenchmark {
+    static final int SAMPLES = 65536; // per invocation, split into blockSize blocks
+
+    @Param({"64", "256", "1024", "4096"})
+    int blockSize;
+
+    @Param({"SILENCE", "WHITE_NOISE", "SINE"})
+    Signal signal;
+
+    private final float[] input = new float[SAMPLES];
+    private final float[] output = new float[SAMPLES];
+    private Filter filter;
+
+    @Setup
+    public void setup() {
+        signal.fill(input);
+        filter = new Filter(Signal.SAMPLE_RATE, 1000, 0.707, Filter.Type.BANDPASS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void perSample(Blackhole bh) {
+        for (int i = 0; i < SAMPLES; i++) {
+            output[i] = filter.process(input[i]);
+        }
+        bh.consume(output);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void block(Blackhole bh) {
+        for (int off = 0; off < SAMPLES; off += blockSize) {
+            filter.process(input, off, blockSize, output);
+        }
+        bh.consume(output);
+    }
+}
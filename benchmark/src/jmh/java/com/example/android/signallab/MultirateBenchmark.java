@@ -0,0 +1,48 @@
+package com.example.android.signallab;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+// The 200 Hz low pass band alone, at full rate (stages = 0) vs decimated by 2^stages
+// with half-band filters. Scores are ns/sample at the full rate.
+@State(Scope.Thread)
+public class MultirateBenchmark {
+    static final int SAMPLES = 65536;
+    static final int BLOCK = 1024;
+
+    @Param({"0", "2", "3", "4"})
+    int stages;
+
+    @Param({"1", "4", "8"})
+    int order;
+
+    @Param({"WHITE_NOISE"})
+    Signal signal;
+
+    private final float[] input = new float[SAMPLES];
+    private final float[] block = new float[BLOCK];
+    private final float[] out = new float[BLOCK];
+    private FilterBank bank;
+
+    @Setup
+    public void setup() {
+        signal.fill(input);
+        bank = new FilterBank(Signal.SAMPLE_RATE, 1, BLOCK, FilterBank.Topology.PARALLEL,
+                new FilterBank.Band(Filter.Type.LOWPASS, EqProcessor.LOW_FREQ, EqProcessor.Q, order, stages));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void lowBand(Blackhole bh) {
+        for (int off = 0; off < SAMPLES; off += BLOCK) {
+            System.arraycopy(input, off, block, 0, BLOCK);
+            bank.process(block, out, BLOCK);
+            bh.consume(out);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.android.signallab;
+
+import java.util.Random;
+
+// Test signals shared by the benchmarks
+public enum Signal {
+    SILENCE,
+    WHITE_NOISE,
+    SINE;
+
+    static final int SAMPLE_RATE = 44100;
+
+    public void fill(float[] buffer) {
+        Random random = new Random(42); // fixed seed, same input for every run
+        for (int i = 0; i < buffer.length; i++) {
+            switch (this) {
+                case SILENCE:
+                    buffer[i] = 0f;
+                    break;
+                case WHITE_NOISE:
+                    buffer[i] = (random.nextFloat() * 2f - 1f) * 0.5f;
+                    break;
+                case SINE:
+                    buffer[i] = 0.5f * (float) Math.sin(2 * Math.PI * 1000 * i / SAMPLE_RATE);
+                    break;
+            }
+        }
+    }
+}
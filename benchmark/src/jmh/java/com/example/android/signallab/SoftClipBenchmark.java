@@ -0,0 +1,95 @@
+package com.example.android.signallab;
+
+import org.jtransforms.fft.FloatFFT_1D;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+// The saturation stage: per-sample double Math.tanh (the old EqProcessor loop) vs
+// SoftClipper at 1x, 2x and 4x. drive scales the input, 3 is MAX_GAIN. Scores are
+// ns/sample.
+//
+// Setup also prints the approximation error against Math.tanh and how much aliasing a
+// full scale ~5 kHz sine at drive 3 produces: everything up to 18 kHz other than the
+// 5 kHz and 15 kHz harmonics, relative to the output power. Above 18 kHz the
+// half-band's transition band lets part of the 25 kHz harmonic through at any rate.
+@State(Scope.Thread)
+public class SoftClipBenchmark {
+    static final int SAMPLES = 65536;
+    static final int BLOCK = 1024;
+    static final int ALIAS_FFT = 8192;
+    static final int ALIAS_BIN = 929; // ~5001 Hz, an exact bin so nothing leaks
+    static final int ALIAS_TOP = 3344; // ~18 kHz
+
+    @Param({"1", "2", "4"})
+    int oversampling;
+
+    @Param({"1", "3"})
+    float drive;
+
+    @Param({"WHITE_NOISE", "SINE"})
+    Signal signal;
+
+    private final float[] input = new float[SAMPLES];
+    private final float[] block = new float[BLOCK];
+    private SoftClipper clipper;
+
+    @Setup
+    public void setup() {
+        signal.fill(input);
+        for (int i = 0; i < SAMPLES; i++) input[i] *= drive;
+        clipper = new SoftClipper(1, BLOCK, oversampling);
+        System.out.printf("%nmax |tanh error| %.2e, aliasing %.1f dB%n", maxError(), aliasing(oversampling));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void mathTanh(Blackhole bh) {
+        for (int off = 0; off < SAMPLES; off += BLOCK) {
+            for (int i = 0; i < BLOCK; i++) block[i] = (float) Math.tanh(input[off + i]);
+            bh.consume(block);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void softClip(Blackhole bh) {
+        for (int off = 0; off < SAMPLES; off += BLOCK) {
+            System.arraycopy(input, off, block, 0, BLOCK);
+            clipper.process(block, BLOCK);
+            bh.consume(block);
+        }
+    }
+
+    static double maxError() {
+        double max = 0;
+        for (int i = -800_000; i <= 800_000; i++) {
+            float x = i * 1e-5f;
+            max = Math.max(max, Math.abs(SoftClipper.tanh(x) - Math.tanh(x)));
+        }
+        return max;
+    }
+
+    static double aliasing(int oversampling) {
+        SoftClipper clipper = new SoftClipper(1, ALIAS_FFT, oversampling);
+        float[] x = new float[ALIAS_FFT];
+        for (int pass = 0; pass < 2; pass++) { // first pass settles the filters
+            for (int i = 0; i < ALIAS_FFT; i++) {
+                x[i] = 3f * (float) Math.sin(2 * Math.PI * ALIAS_BIN * i / ALIAS_FFT);
+            }
+            clipper.process(x, ALIAS_FFT);
+        }
+        new FloatFFT_1D(ALIAS_FFT).realForward(x);
+        double total = 0, alias = 0;
+        for (int k = 1; k < ALIAS_FFT / 2; k++) {
+            double p = x[2 * k] * x[2 * k] + x[2 * k + 1] * x[2 * k + 1];
+            total += p;
+            if (k < ALIAS_TOP && k != ALIAS_BIN && k != 3 * ALIAS_BIN) alias += p;
+        }
+        return 10 * Math.log10(alias / total);
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.android.signallab;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// One analyzer frame: window, FFT, dB power and smoothing. Scores are ns per frame;
+// divide by fftSize for ns/sample.
+@State(Scope.Thread)
+public class SpectrumBenchmark {
+    @Param({"512", "1024", "2048", "4096"})
+    int fftSize;
+
+    @Param({"HANN", "BLACKMAN"})
+    SpectrumAnalyzer.Window window;
+
+    @Param({"SILENCE", "WHITE_NOISE", "SINE"})
+    Signal signal;
+
+    private float[] frame;
+    private SpectrumAnalyzer analyzer;
+
+    @Setup
+    public void setup() {
+        frame = new float[fftSize];
+        signal.fill(frame);
+        analyzer = new SpectrumAnalyzer(fftSize, window);
+    }
+
+    @Benchmark
+    public float[] computeFFT() {
+        return analyzer.computeFFT(frame);
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.android.signallab;
+
+// The EQ chain: a FilterBank followed by a SoftClipper (tanh saturation). By default the bank is the
+// original three bands (low pass / band pass / high pass in parallel, each scaled by its
+// gain and summed). In linear phase mode the bank only describes the response, and
+// audio goes through a LinearPhaseEq FIR designed from it instead. Shared by AudioEngine
+// playback and the OfflineRenderer so both produce the same output.
+public class EqProcessor {
+    public static final double LOW_FREQ = 200;
+    public static final double MID_FREQ = 1000;
+    public static final double HIGH_FREQ = 6000;
+    public static final double Q = 0.707;
+
+    public static final int BAND_LOW = 0;
+    public static final int BAND_MID = 1;
+    public static final int BAND_HIGH = 2;
+
+    private final FilterBank bank;
+    private volatile LinearPhaseEq linearPhase; // null means IIR mode
+    private volatile SoftClipper clipper;
+
+    public EqProcessor(double sampleRate, int maxBlockSize) {
+        this(sampleRate, 1, maxBlockSize);
+    }
+
+    // maxBlockSize in frames, audio is interleaved when channels > 1
+    public EqProcessor(double sampleRate, int channels, int maxBlockSize) {
+        this(FilterBank.threeBand(sampleRate, channels, maxBlockSize));
+    }
+
+    public EqProcessor(FilterBank bank) {
+        this.bank = bank;
+        this.clipper = new SoftClipper(bank.getChannels(), bank.getMaxFrames(), 1);
+    }
+
+    // Runs the EQ chain over length frames of in, writing into out
+    public void process(float[] in, float[] out, int length) {
+        LinearPhaseEq lp = linearPhase;
+        if (lp != null) {
+            lp.process(in, out, length);
+        } else {
+            bank.process(in, out, length);
+        }
+        clipper.process(out, length);
+    }
+
+    // Retunes a band while audio is running. Coefficients are computed on the calling
+    // thread; the audio thread picks them up at its next block and interpolates to them.
+    public void setBand(int band, double freq, double q, Filter.Type type) {
+        bank.setBand(band, freq, q, type);
+        redesignLinearPhase();
+    }
+
+    public void setGain(int band, float gain) {
+        bank.setGain(band, gain);
+        redesignLinearPhase();
+    }
+
+    // Switches to the linear phase FIR. taps sets the FIR length, partitionSize the
+    // convolver block (power of two), trading latency for CPU. Call off the audio thread.
+    public void setLinearPhase(int taps, int partitionSize) {
+        LinearPhaseEq lp = new LinearPhaseEq(bank.getChannels(), bank.getMaxFrames(), taps, partitionSize);
+        lp.design(bank);
+        linearPhase = lp;
+    }
+
+    // Back to the minimum phase biquads
+    public void setIir() {
+        linearPhase = null;
+    }
+
+    public boolean isLinearPhase() {
+        return linearPhase != null;
+    }
+
+    // Runs the soft clip at 1x, 2x or 4x the sample rate. Higher rates alias less when
+    // gains push into saturation but add a few samples of delay.
+    public void setOversampling(int factor) {
+        clipper = new SoftClipper(bank.getChannels(), bank.getMaxFrames(), factor);
+    }
+
+    public int getOversampling() {
+        return clipper.getOversampling();
+    }
+
+    // Delay added by the EQ in samples, 0 for the IIR path without oversampling
+    public int getLatency() {
+        LinearPhaseEq lp = linearPhase;
+        return (lp == null ? 0 : lp.getLatency()) + clipper.getLatency();
+    }
+
+    // How many past input samples the output still depends on through delay lines: the
+    // FIR and its convolver block, or the multirate bands' filters, plus the clipper's
+    // half-bands. The biquads' own decay isn't included, callers add a margin for it.
+    public int getMemory() {
+        LinearPhaseEq lp = linearPhase;
+        int memory = lp == null ? 2 * bank.getLatency() : lp.getTaps() + lp.getPartitionSize();
+        return memory + 2 * (clipper.getLatency() + 1);
+    }
+
+    private void redesignLinearPhase() {
+        LinearPhaseEq lp = linearPhase;
+        if (lp != null) lp.design(bank);
+    }
+
+    // An independent chain with the same settings and fresh state, for rendering on
+    // another thread or a take with another channel count
+    public EqProcessor copy(int channels, int maxBlockSize) {
+        EqProcessor copy = new EqProcessor(bank.copy(channels, maxBlockSize));
+        copy.clipper = new SoftClipper(channels, maxBlockSize, getOversampling());
+        LinearPhaseEq lp = linearPhase;
+        if (lp != null) copy.setLinearPhase(lp.getTaps(), lp.getPartitionSize());
+        return copy;
+    }
+
+    LinearPhaseEq getLinearPhase() {
+        return linearPhase;
+    }
+
+    public FilterBank getBank() {
+        return bank;
+    }
+
+    public void reset() {
+        bank.reset();
+        LinearPhaseEq lp = linearPhase;
+        if (lp != null) lp.reset();
+        clipper.reset();
+    }
+
+    public int getChannels() {
+        return bank.getChannels();
+    }
+
+    public int getMaxBlockSize() {
+        return bank.getMaxFrames();
+    }
+
+    // Three band shortcuts, only meaningful for the default bank
+    public void setBassGain(float gain) {
+        setGain(BAND_LOW, gain);
+    }
+
+    public void setMidGain(float gain) {
+        setGain(BAND_MID, gain);
+    }
+
+    public void setTrebleGain(float gain) {
+        setGain(BAND_HIGH, gain);
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.android.signallab;
+
+public class Filter {
+    // Active coefficients, already divided by a0. Only touched by the audio thread.
+    private double b0, b1, b2, a1, a2;
+    private double z1 = 0, z2 = 0;
+    // Latest coefficients published by setCoefficients, picked up at the next block
+    private volatile Coefficients target;
+    private Coefficients active;
+    public enum Type {
+        LOWPASS,
+        BANDPASS,
+        HIGHPASS,
+        PEAKING,
+        LOWSHELF,
+        HIGHSHELF
+    }
+
+    // Immutable, normalized biquad coefficients. Designing them needs sin/cos, so it's
+    // done on the thread that asks for the change, never on the audio thread.
+    public static final class Coefficients {
+        public final double b0, b1, b2, a1, a2;
+
+        public Coefficients(double b0, double b1, double b2, double a1, double a2) {
+            this.b0 = b0;
+            this.b1 = b1;
+            this.b2 = b2;
+            this.a1 = a1;
+            this.a2 = a2;
+        }
+
+        public static Coefficients design(double SampleRate, double freq, double q, Type type) {
+            return design(SampleRate, freq, q, type, 0);
+        }
+
+        // gainDb only applies to PEAKING, LOWSHELF and HIGHSHELF (RBJ cookbook forms)
+        public static Coefficients design(double SampleRate, double freq, double q, Type type, double gainDb) {
+            double omega = 2 * Math.PI * freq / SampleRate;
+            double alpha = Math.sin(omega) / (2*q);
+            double cosw = Math.cos(omega);
+            double A = Math.pow(10, gainDb / 40);
+            double b0 = 0, b1 = 0, b2 = 0;
+            double a0 = 1 + alpha;
+            double a1 = -2*cosw;
+            double a2 = 1 - alpha;
+
+            switch(type) {
+                case LOWPASS:
+                    b0 = (1-cosw)/2;
+                    b1 = 1-cosw;
+                    b2 = (1-cosw)/2;
+                    break;
+                case BANDPASS:
+                    b0 = alpha;
+                    b1 = 0;
+                    b2 = -alpha;
+                    break;
+                case HIGHPASS:
+                    b0 = (1 + cosw)/2;
+                    b1 = -(1 + cosw);
+                    b2 = (1 + cosw)/2;
+                    break;
+                case PEAKING:
+                    b0 = 1 + alpha*A;
+                    b1 = -2*cosw;
+                    b2 = 1 - alpha*A;
+                    a0 = 1 + alpha/A;
+                    a2 = 1 - alpha/A;
+                    break;
+                case LOWSHELF: {
+                    double k = 2*Math.sqrt(A)*alpha;
+                    b0 = A*((A+1) - (A-1)*cosw + k);
+                    b1 = 2*A*((A-1) - (A+1)*cosw);
+                    b2 = A*((A+1) - (A-1)*cosw - k);
+                    a0 = (A+1) + (A-1)*cosw + k;
+                    a1 = -2*((A-1) + (A+1)*cosw);
+                    a2 = (A+1) + (A-1)*cosw - k;
+                    break;
+                }
+                case HIGHSHELF: {
+                    double k = 2*Math.sqrt(A)*alpha;
+                    b0 = A*((A+1) + (A-1)*cosw + k);
+                    b1 = -2*A*((A-1) + (A+1)*cosw);
+                    b2 = A*((A+1) + (A-1)*cosw - k);
+                    a0 = (A+1) - (A-1)*cosw + k;
+                    a1 = 2*((A-1) - (A+1)*cosw);
+                    a2 = (A+1) - (A-1)*cosw - k;
+                    break;
+                }
+            }
+
+            // Normalize once here instead of on every sample
+            return new Coefficients(b0 / a0, b1 / a0, b2 / a0, a1 / a0, a2 / a0);
+        }
+    }
+
+    public Filter(double SampleRate, double freq, double q, Type type){
+        Coefficients c = Coefficients.design(SampleRate, freq, q, type);
+        target = c;
+        load(c);
+    }
+
+    // Retunes the filter. Safe to call from any thread while audio is running: the new
+    // coefficients are published and the audio thread glides to them over its next block.
+    public void setCoefficients(double SampleRate, double freq, double q, Type type){
+        target = Coefficients.design(SampleRate, freq, q, type);
+    }
+
+    public void setCoefficients(Coefficients c) {
+        target = c;
+    }
+
+    public Coefficients getCoefficients() {
+        return target;
+    }
+
+    public float process(float x) {
+        Coefficients c = target;
+        if (c != active) load(c); // no block boundary here, switch right away
+        double out = b0 * x + z1;
+        z1 = b1 * x - a1 * out + z2;
+        z2 = b2 * x - a2 * out;
+        return (float)  out;
+    }
+
+    // Filters in[off..off+len) into out[off..off+len). in and out may be the same array.
+    public void process(float[] in, int off, int len, float[] out) {
+        Coefficients c = target;
+        if (c != active) {
+            processRamp(in, off, len, out, c);
+            return;
+        }
+        // Keep coefficients and state in locals for the whole block
+        final double b0 = this.b0, b1 = this.b1, b2 = this.b2, a1 = this.a1, a2 = this.a2;
+        double s1 = z1, s2 = z2;
+        for (int i = off, end = off + len; i < end; i++) {
+            double x = in[i];
+            double y = b0 * x + s1;
+            s1 = b1 * x - a1 * y + s2;
+            s2 = b2 * x - a2 * y;
+            out[i] = (float) y;
+        }
+        z1 = s1;
+        z2 = s2;
+    }
+
+    // Same as process() but moves the coefficients linearly from the active set to c
+    // across the block, so retuning doesn't click
+    private void processRamp(float[] in, int off, int len, float[] out, Coefficients c) {
+        if (len <= 0) return;
+        double step = 1.0 / len;
+        double db0 = (c.b0 - b0) * step, db1 = (c.b1 - b1) * step, db2 = (c.b2 - b2) * step;
+        double da1 = (c.a1 - a1) * step, da2 = (c.a2 - a2) * step;
+        double b0 = this.b0, b1 = this.b1, b2 = this.b2, a1 = this.a1, a2 = this.a2;
+        double s1 = z1, s2 = z2;
+        for (int i = off, end = off + len; i < end; i++) {
+            b0 += db0;
+            b1 += db1;
+            b2 += db2;
+            a1 += da1;
+            a2 += da2;
+            double x = in[i];
+            double y = b0 * x + s1;
+            s1 = b1 * x - a1 * y + s2;
+            s2 = b2 * x - a2 * y;
+            out[i] = (float) y;
+        }
+        z1 = s1;
+        z2 = s2;
+        load(c); // land exactly on the target
+    }
+
+    private void load(Coefficients c) {
+        b0 = c.b0;
+        b1 = c.b1;
+        b2 = c.b2;
+        a1 = c.a1;
+        a2 = c.a2;
+        active = c;
+    }
+
+    public void reset(){
+        z1 = 0;
+        z2 = 0;
+    }
+}
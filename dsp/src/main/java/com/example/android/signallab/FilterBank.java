@@ -0,0 +1,582 @@
+package com.example.android.signallab;
+
+import java.util.Arrays;
+
+// N-band EQ built from biquad sections. Coefficients and filter state for every section
+// live in flat primitive arrays (struct of arrays), so a block is one loop over sections
+// with the section's coefficients and state held in locals. A band can cascade several
+// sections for steeper slopes.
+//
+// Changes (setGain / setBand) are designed on the calling thread and published as an
+// immutable snapshot; the audio thread swaps it in at the next block and ramps to it,
+// the same way Filter does.
+//
+// In the PARALLEL topology a band can also run decimated (Band.stages, see
+// MultirateBand); the other bands are then delayed to stay aligned with it.
+public class FilterBank {
+    public enum Topology {
+        PARALLEL, // every band filters the input, band outputs are scaled by gain and summed
+        SERIES    // bands run one after the other, gain is baked into peaking/shelf sections
+    }
+
+    public static final class Band {
+        public final Filter.Type type;
+        public final double freq;
+        public final double q;
+        public final int order; // number of cascaded biquad sections
+        public final int stages; // run at sampleRate / 2^stages, 0 = full rate
+
+        public Band(Filter.Type type, double freq, double q, int order, int stages) {
+            if (order < 1) throw new IllegalArgumentException("order must be >= 1");
+            if (stages < 0) throw new IllegalArgumentException("stages must be >= 0");
+            this.type = type;
+            this.freq = freq;
+            this.q = q;
+            this.order = order;
+            this.stages = stages;
+        }
+
+        public Band(Filter.Type type, double freq, double q, int order) {
+            this(type, freq, q, order, 0);
+        }
+
+        public Band(Filter.Type type, double freq, double q) {
+            this(type, freq, q, 1);
+        }
+    }
+
+    // One entry per section, already normalized. gains is the per band mix gain.
+    private static final class Snapshot {
+        final double[] b0, b1, b2, a1, a2;
+        final float[] gains;
+
+        Snapshot(int sections, int bands) {
+            b0 = new double[sections];
+            b1 = new double[sections];
+            b2 = new double[sections];
+            a1 = new double[sections];
+            a2 = new double[sections];
+            gains = new float[bands];
+        }
+    }
+
+    // ISO octave and third-octave centre frequencies for the graphic presets
+    private static final double[] OCTAVE_CENTERS = {
+            31.5, 63, 125, 250, 500, 1000, 2000, 4000, 8000, 16000
+    };
+    private static final double[] THIRD_OCTAVE_CENTERS = {
+            20, 25, 31.5, 40, 50, 63, 80, 100, 125, 160, 200, 250, 315, 400, 500, 630, 800,
+            1000, 1250, 1600, 2000, 2500, 3150, 4000, 5000, 6300, 8000, 10000, 12500, 16000, 20000
+    };
+    private static final double OCTAVE_Q = 1.414;
+    private static final double THIRD_OCTAVE_Q = 4.318;
+
+    private final double sampleRate;
+    private final int channels;
+    private final int maxFrames;
+    private final Topology topology;
+    private final int bandCount;
+    private final int sectionCount;
+    private final int[] bandStart; // sections of band i are bandStart[i] .. bandStart[i + 1] - 1
+
+    // Control side (UI thread), guarded by this
+    private final Band[] bands;
+    private final float[] bandGains; // linear
+
+    private volatile Snapshot target;
+    private Snapshot active;
+
+    // Audio thread: active coefficients, state per channel and section, scratch
+    private final double[] b0, b1, b2, a1, a2;
+    private final float[] gains;
+    private final double[] z1, z2;
+    private final float[][] channelFrames; // [pair member][frame], see process()
+    private final float[][] bandFrames;
+    private final float[][] mixFrames;
+
+    // Multirate: per band (null for full rate bands) and channel, plus the delay that
+    // keeps the full rate bands in line with the decimated ones
+    private final MultirateBand[][] multirate;
+    private final int latency;
+    private final float[][] lowMixFrames;
+    private final float[][] delayLines;
+    private int delayPos;
+
+    public FilterBank(double sampleRate, int channels, int maxFrames, Topology topology, Band... bands) {
+        if (channels < 1) throw new IllegalArgumentException("channels must be >= 1");
+        if (bands.length == 0) throw new IllegalArgumentException("need at least one band");
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.maxFrames = maxFrames;
+        this.topology = topology;
+        this.bandCount = bands.length;
+        this.bands = bands.clone();
+
+        bandStart = new int[bandCount + 1];
+        for (int i = 0; i < bandCount; i++) {
+            bandStart[i + 1] = bandStart[i] + bands[i].order;
+        }
+        sectionCount = bandStart[bandCount];
+
+        bandGains = new float[bandCount];
+        Arrays.fill(bandGains, 1f);
+
+        b0 = new double[sectionCount];
+        b1 = new double[sectionCount];
+        b2 = new double[sectionCount];
+        a1 = new double[sectionCount];
+        a2 = new double[sectionCount];
+        gains = new float[bandCount];
+        z1 = new double[channels * sectionCount];
+        z2 = new double[channels * sectionCount];
+        int width = Math.min(channels, 2);
+        channelFrames = new float[width][maxFrames];
+        bandFrames = new float[width][maxFrames];
+        mixFrames = new float[width][maxFrames];
+
+        int maxStages = 0;
+        for (Band band : bands) maxStages = Math.max(maxStages, band.stages);
+        if (maxStages > 0 && topology != Topology.PARALLEL) {
+            throw new IllegalArgumentException("Multirate bands need the PARALLEL topology");
+        }
+        latency = MultirateBand.latency(maxStages);
+        multirate = new MultirateBand[bandCount][];
+        for (int i = 0; i < bandCount; i++) {
+            Band band = bands[i];
+            if (band.stages == 0) continue;
+            multirate[i] = new MultirateBand[channels];
+            for (int ch = 0; ch < channels; ch++) {
+                multirate[i][ch] = new MultirateBand(sampleRate, maxFrames, band.stages,
+                        new Band(band.type, band.freq, band.q, band.order),
+                        latency - MultirateBand.latency(band.stages));
+            }
+        }
+        lowMixFrames = latency > 0 ? new float[width][maxFrames] : null;
+        delayLines = latency > 0 ? new float[channels][latency] : null;
+
+        Snapshot s = design();
+        target = s;
+        load(s);
+    }
+
+    // The three band layout with the low pass band run at sampleRate / 2^stages as an
+    // order * 2 Butterworth; steeper bass for less CPU than the full rate biquad
+    public static FilterBank threeBandMultirate(double sampleRate, int channels, int maxFrames, int stages, int order) {
+        return new FilterBank(sampleRate, channels, maxFrames, Topology.PARALLEL,
+                new Band(Filter.Type.LOWPASS, EqProcessor.LOW_FREQ, EqProcessor.Q, order, stages),
+                new Band(Filter.Type.BANDPASS, EqProcessor.MID_FREQ, EqProcessor.Q),
+                new Band(Filter.Type.HIGHPASS, EqProcessor.HIGH_FREQ, EqProcessor.Q));
+    }
+
+    // The original three band layout: 200 Hz low pass, 1 kHz band pass, 6 kHz high pass
+    public static FilterBank threeBand(double sampleRate, int channels, int maxFrames) {
+        return new FilterBank(sampleRate, channels, maxFrames, Topology.PARALLEL,
+                new Band(Filter.Type.LOWPASS, EqProcessor.LOW_FREQ, EqProcessor.Q),
+                new Band(Filter.Type.BANDPASS, EqProcessor.MID_FREQ, EqProcessor.Q),
+                new Band(Filter.Type.HIGHPASS, EqProcessor.HIGH_FREQ, EqProcessor.Q));
+    }
+
+    // 10 band octave graphic EQ, peaking sections in series
+    public static FilterBank graphic10(double sampleRate, int channels, int maxFrames) {
+        return graphic(sampleRate, channels, maxFrames, OCTAVE_CENTERS, OCTAVE_Q);
+    }
+
+    // 31 band third-octave graphic EQ, peaking sections in series
+    public static FilterBank graphic31(double sampleRate, int channels, int maxFrames) {
+        return graphic(sampleRate, channels, maxFrames, THIRD_OCTAVE_CENTERS, THIRD_OCTAVE_Q);
+    }
+
+    private static FilterBank graphic(double sampleRate, int channels, int maxFrames, double[] centers, double q) {
+        Band[] bands = new Band[centers.length];
+        for (int i = 0; i < centers.length; i++) {
+            bands[i] = new Band(Filter.Type.PEAKING, centers[i], q);
+        }
+        return new FilterBank(sampleRate, channels, maxFrames, Topology.SERIES, bands);
+    }
+
+    // Linear gain for a band. PARALLEL: scales the band output. SERIES: boost/cut of the
+    // band's peaking/shelf sections (20*log10(gain) dB).
+    public synchronized void setGain(int band, float gain) {
+        bandGains[band] = gain;
+        target = design();
+    }
+
+    // Retunes a band, keeping its order
+    public synchronized void setBand(int band, double freq, double q, Filter.Type type) {
+        Band old = bands[band];
+        bands[band] = new Band(type, freq, q, old.order, old.stages);
+        target = design();
+        if (multirate[band] != null) {
+            for (MultirateBand mr : multirate[band]) mr.setBand(freq, q, type);
+        }
+    }
+
+    public synchronized float getGain(int band) {
+        return bandGains[band];
+    }
+
+    public synchronized Band getBand(int band) {
+        return bands[band];
+    }
+
+    public int getBandCount() {
+        return bandCount;
+    }
+
+    public int getSectionCount() {
+        return sectionCount;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getMaxFrames() {
+        return maxFrames;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    public Topology getTopology() {
+        return topology;
+    }
+
+    // Delay in samples added by multirate bands (the whole bank is delayed by it), 0 if
+    // every band runs at full rate
+    public int getLatency() {
+        return latency;
+    }
+
+    // |H(freq)| of the whole bank for the current settings, without the tanh stage.
+    // Used to design the linear phase FIR; not meant for the audio thread.
+    public double magnitudeAt(double freq) {
+        Snapshot s = target;
+        double w = 2 * Math.PI * freq / sampleRate;
+        // z^-1 and z^-2 on the unit circle
+        double c1 = Math.cos(w), s1 = -Math.sin(w);
+        double c2 = Math.cos(2 * w), s2 = -Math.sin(2 * w);
+        double sumRe = 0, sumIm = 0;
+        double prodRe = 1, prodIm = 0;
+        for (int band = 0; band < bandCount; band++) {
+            double bandRe = 1, bandIm = 0;
+            for (int sec = bandStart[band]; sec < bandStart[band + 1]; sec++) {
+                double numRe = s.b0[sec] + s.b1[sec] * c1 + s.b2[sec] * c2;
+                double numIm = s.b1[sec] * s1 + s.b2[sec] * s2;
+                double denRe = 1 + s.a1[sec] * c1 + s.a2[sec] * c2;
+                double denIm = s.a1[sec] * s1 + s.a2[sec] * s2;
+                double den = denRe * denRe + denIm * denIm;
+                double hRe = (numRe * denRe + numIm * denIm) / den;
+                double hIm = (numIm * denRe - numRe * denIm) / den;
+                double re = bandRe * hRe - bandIm * hIm;
+                bandIm = bandRe * hIm + bandIm * hRe;
+                bandRe = re;
+            }
+            if (topology == Topology.PARALLEL) {
+                sumRe += s.gains[band] * bandRe;
+                sumIm += s.gains[band] * bandIm;
+            } else {
+                double re = prodRe * bandRe - prodIm * bandIm;
+                prodIm = prodRe * bandIm + prodIm * bandRe;
+                prodRe = re;
+            }
+        }
+        return topology == Topology.PARALLEL ? Math.hypot(sumRe, sumIm) : Math.hypot(prodRe, prodIm);
+    }
+
+    // Filters frames interleaved frames of in into out (in.length >= frames * channels).
+    // in and out may be the same array.
+    //
+    // Channels go through in pairs. The two recursions of a section don't depend on each
+    // other, so running them in one loop fills the latency either leaves in the pipeline
+    // and a stereo block costs little more than a mono one.
+    public void process(float[] in, float[] out, int frames) {
+        Snapshot s = target;
+        Snapshot rampTo = s != active ? s : null;
+
+        for (int ch = 0; ch < channels; ch += 2) {
+            int width = Math.min(2, channels - ch);
+            float[][] x = channelFrames;
+            for (int k = 0; k < width; k++) {
+                if (channels == 1) {
+                    System.arraycopy(in, 0, x[k], 0, frames);
+                } else {
+                    float[] dst = x[k];
+                    for (int i = 0, j = ch + k; i < frames; i++, j += channels) dst[i] = in[j];
+                }
+            }
+
+            float[][] result;
+            if (topology == Topology.PARALLEL) {
+                float[][] mix = mixFrames;
+                float[][] lowMix = lowMixFrames;
+                for (int k = 0; k < width; k++) {
+                    Arrays.fill(mix[k], 0, frames, 0f);
+                    if (lowMix != null) Arrays.fill(lowMix[k], 0, frames, 0f);
+                }
+                for (int band = 0; band < bandCount; band++) {
+                    if (multirate[band] != null) {
+                        for (int k = 0; k < width; k++) {
+                            multirate[band][ch + k].process(x[k], bandFrames[k], frames);
+                            mixBand(bandFrames[k], lowMix[k], frames, gains[band], s.gains[band]);
+                        }
+                        continue;
+                    }
+                    for (int k = 0; k < width; k++) System.arraycopy(x[k], 0, bandFrames[k], 0, frames);
+                    for (int sec = bandStart[band]; sec < bandStart[band + 1]; sec++) {
+                        runSection(sec, ch, width, bandFrames, frames, rampTo);
+                    }
+                    for (int k = 0; k < width; k++) {
+                        mixBand(bandFrames[k], mix[k], frames, gains[band], s.gains[band]);
+                    }
+                }
+                if (lowMix != null) {
+                    // Delay the full rate bands to line up with the decimated ones
+                    for (int k = 0; k < width; k++) {
+                        float[] line = delayLines[ch + k];
+                        float[] m = mix[k];
+                        float[] low = lowMix[k];
+                        int pos = delayPos;
+                        for (int i = 0; i < frames; i++) {
+                            float delayed = line[pos];
+                            line[pos] = m[i];
+                            m[i] = delayed + low[i];
+                            pos = pos + 1 == latency ? 0 : pos + 1;
+                        }
+                    }
+                }
+                result = mix;
+            } else {
+                for (int sec = 0; sec < sectionCount; sec++) {
+                    runSection(sec, ch, width, x, frames, rampTo);
+                }
+                result = x;
+            }
+
+            for (int k = 0; k < width; k++) {
+                if (channels == 1) {
+                    System.arraycopy(result[k], 0, out, 0, frames);
+                } else {
+                    float[] src = result[k];
+                    for (int i = 0, j = ch + k; i < frames; i++, j += channels) out[j] = src[i];
+                }
+            }
+        }
+
+        if (rampTo != null) load(s);
+        if (latency > 0) delayPos = (delayPos + frames) % latency;
+    }
+
+    // Same bands, gains and topology with fresh state, for rendering on another thread or
+    // a take with another channel count
+    public synchronized FilterBank copy(int channels, int maxFrames) {
+        FilterBank copy = new FilterBank(sampleRate, channels, maxFrames, topology, bands);
+        System.arraycopy(bandGains, 0, copy.bandGains, 0, bandCount);
+        Snapshot s = copy.design();
+        copy.target = s;
+        copy.load(s);
+        return copy;
+    }
+
+    // Biquad state of one channel as [z1 of every section, z2 of every section]. Multirate
+    // bands keep state of their own that this does not cover.
+    void getState(int ch, double[] dst) {
+        System.arraycopy(z1, ch * sectionCount, dst, 0, sectionCount);
+        System.arraycopy(z2, ch * sectionCount, dst, sectionCount, sectionCount);
+    }
+
+    void setState(int ch, double[] src) {
+        System.arraycopy(src, 0, z1, ch * sectionCount, sectionCount);
+        System.arraycopy(src, sectionCount, z2, ch * sectionCount, sectionCount);
+    }
+
+    // The bank is linear in its state: after a block, state = T * (state before) + (state
+    // the block leaves behind starting from zero). Returns T for blocks of samples frames,
+    // row major over the getState layout, for the active coefficients. A^samples by
+    // squaring, A being one zero input step of every section.
+    double[] transition(int samples) {
+        int n = 2 * sectionCount;
+        double[] step = new double[n * n];
+        double[] unit = new double[n];
+        double[] next = new double[n];
+        for (int j = 0; j < n; j++) {
+            unit[j] = 1;
+            stepZeroInput(unit, next);
+            for (int i = 0; i < n; i++) step[i * n + j] = next[i];
+            unit[j] = 0;
+        }
+        double[] result = new double[n * n];
+        for (int i = 0; i < n; i++) result[i * n + i] = 1;
+        for (int k = samples; k > 0; k >>>= 1) {
+            if ((k & 1) != 0) result = multiply(result, step, n);
+            if (k > 1) step = multiply(step, step, n);
+        }
+        return result;
+    }
+
+    // One sample of zero input through every section, state in the getState layout
+    private void stepZeroInput(double[] state, double[] next) {
+        double x = 0;
+        for (int band = 0; band < bandCount; band++) {
+            if (topology == Topology.PARALLEL) x = 0; // every band starts from the input
+            for (int sec = bandStart[band]; sec < bandStart[band + 1]; sec++) {
+                double s1 = state[sec], s2 = state[sectionCount + sec];
+                double y = b0[sec] * x + s1;
+                next[sec] = b1[sec] * x - a1[sec] * y + s2;
+                next[sectionCount + sec] = b2[sec] * x - a2[sec] * y;
+                x = y;
+            }
+        }
+    }
+
+    private static double[] multiply(double[] a, double[] b, int n) {
+        double[] c = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < n; k++) {
+                double aik = a[i * n + k];
+                if (aik == 0) continue;
+                for (int j = 0; j < n; j++) c[i * n + j] += aik * b[k * n + j];
+            }
+        }
+        return c;
+    }
+
+    public void reset() {
+        Arrays.fill(z1, 0);
+        Arrays.fill(z2, 0);
+        for (MultirateBand[] perChannel : multirate) {
+            if (perChannel == null) continue;
+            for (MultirateBand mr : perChannel) mr.reset();
+        }
+        if (delayLines != null) {
+            for (float[] line : delayLines) Arrays.fill(line, 0f);
+        }
+    }
+
+    // Section sec over width (1 or 2) channels from ch on, bufs[k] holding channel ch + k.
+    // Ramping blocks are rare enough to run one channel at a time.
+    private void runSection(int sec, int ch, int width, float[][] bufs, int frames, Snapshot rampTo) {
+        if (width == 2 && rampTo == null) {
+            runSectionPair(sec, ch, bufs[0], bufs[1], frames);
+        } else {
+            for (int k = 0; k < width; k++) runSection(sec, ch + k, bufs[k], frames, rampTo);
+        }
+    }
+
+    // runSection for channels ch and ch + 1 in one loop, same arithmetic per channel
+    private void runSectionPair(int sec, int ch, float[] bufA, float[] bufB, int frames) {
+        int stateA = ch * sectionCount + sec;
+        int stateB = stateA + sectionCount;
+        double c0 = b0[sec], c1 = b1[sec], c2 = b2[sec], d1 = a1[sec], d2 = a2[sec];
+        double sa1 = z1[stateA], sa2 = z2[stateA];
+        double sb1 = z1[stateB], sb2 = z2[stateB];
+        for (int i = 0; i < frames; i++) {
+            double xa = bufA[i];
+            double xb = bufB[i];
+            double ya = c0 * xa + sa1;
+            double yb = c0 * xb + sb1;
+            sa1 = c1 * xa - d1 * ya + sa2;
+            sb1 = c1 * xb - d1 * yb + sb2;
+            sa2 = c2 * xa - d2 * ya;
+            sb2 = c2 * xb - d2 * yb;
+            bufA[i] = (float) ya;
+            bufB[i] = (float) yb;
+        }
+        z1[stateA] = sa1;
+        z2[stateA] = sa2;
+        z1[stateB] = sb1;
+        z2[stateB] = sb2;
+    }
+
+    // One biquad section over buf in place. With a ramp target the coefficients move
+    // linearly from the active values to the target across the block.
+    private void runSection(int sec, int ch, float[] buf, int frames, Snapshot rampTo) {
+        int state = ch * sectionCount + sec;
+        double c0 = b0[sec], c1 = b1[sec], c2 = b2[sec], d1 = a1[sec], d2 = a2[sec];
+        double s1 = z1[state], s2 = z2[state];
+        if (rampTo == null) {
+            for (int i = 0; i < frames; i++) {
+                double xn = buf[i];
+                double y = c0 * xn + s1;
+                s1 = c1 * xn - d1 * y + s2;
+                s2 = c2 * xn - d2 * y;
+                buf[i] = (float) y;
+            }
+        } else {
+            double step = 1.0 / Math.max(frames, 1);
+            double dc0 = (rampTo.b0[sec] - c0) * step, dc1 = (rampTo.b1[sec] - c1) * step;
+            double dc2 = (rampTo.b2[sec] - c2) * step;
+            double dd1 = (rampTo.a1[sec] - d1) * step, dd2 = (rampTo.a2[sec] - d2) * step;
+            for (int i = 0; i < frames; i++) {
+                c0 += dc0;
+                c1 += dc1;
+                c2 += dc2;
+                d1 += dd1;
+                d2 += dd2;
+                double xn = buf[i];
+                double y = c0 * xn + s1;
+                s1 = c1 * xn - d1 * y + s2;
+                s2 = c2 * xn - d2 * y;
+                buf[i] = (float) y;
+            }
+        }
+        z1[state] = s1;
+        z2[state] = s2;
+    }
+
+    // mix += band * gain, ramping the gain from g0 to g1 over the block
+    private static void mixBand(float[] band, float[] mix, int frames, float g0, float g1) {
+        if (g0 == g1) {
+            for (int i = 0; i < frames; i++) mix[i] += band[i] * g0;
+        } else {
+            float g = g0;
+            float dg = (g1 - g0) / Math.max(frames, 1);
+            for (int i = 0; i < frames; i++) {
+                g += dg;
+                mix[i] += band[i] * g;
+            }
+        }
+    }
+
+    private void load(Snapshot s) {
+        System.arraycopy(s.b0, 0, b0, 0, sectionCount);
+        System.arraycopy(s.b1, 0, b1, 0, sectionCount);
+        System.arraycopy(s.b2, 0, b2, 0, sectionCount);
+        System.arraycopy(s.a1, 0, a1, 0, sectionCount);
+        System.arraycopy(s.a2, 0, a2, 0, sectionCount);
+        System.arraycopy(s.gains, 0, gains, 0, bandCount);
+        active = s;
+    }
+
+    // Builds a fresh snapshot from the control side band settings
+    private Snapshot design() {
+        Snapshot s = new Snapshot(sectionCount, bandCount);
+        double nyquistLimit = sampleRate * 0.45;
+        for (int band = 0; band < bandCount; band++) {
+            Band spec = bands[band];
+            int order = spec.order;
+            double freq = Math.min(spec.freq, nyquistLimit);
+            boolean series = topology == Topology.SERIES;
+            double gainDb = series ? 20 * Math.log10(Math.max(bandGains[band], 1e-4f)) : 0;
+            s.gains[band] = series ? 1f : bandGains[band];
+
+            for (int k = 0; k < order; k++) {
+                double q = spec.q;
+                if (order > 1 && (spec.type == Filter.Type.LOWPASS || spec.type == Filter.Type.HIGHPASS)) {
+                    // Cascaded low/high pass: Butterworth pole pairs of a 2*order filter
+                    q = 1 / (2 * Math.cos(Math.PI * (2 * k + 1) / (4 * order)));
+                }
+                // Boost/cut is split evenly across cascaded sections
+                Filter.Coefficients c = Filter.Coefficients.design(sampleRate, freq, q, spec.type, gainDb / order);
+                int sec = bandStart[band] + k;
+                s.b0[sec] = c.b0;
+                s.b1[sec] = c.b1;
+                s.b2[sec] = c.b2;
+                s.a1[sec] = c.a1;
+                s.a2[sec] = c.a2;
+            }
+        }
+        return s;
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.android.signallab;
+
+// Polyphase half-band FIR for changing the sample rate by 2. A half-band filter has
+// every other tap zero except the centre (0.5), so each output only needs the even
+// polyphase branch plus one centre tap, and the even branch is symmetric so taps are
+// applied in pairs: 8 multiplies per output for the 31 tap filter. The decimator only
+// computes the outputs it keeps.
+//
+// Both directions delay the signal by CENTER samples at the higher of the two rates.
+public final class HalfBand {
+    public static final int CENTER = 15;         // must be odd
+    private static final int TAPS = 2 * CENTER + 1;
+    private static final int PAIRS = (CENTER + 1) / 2;
+
+    // h[0], h[2], ..., h[CENTER - 1]; h[2 * CENTER - 2j] == h[2j] and h[CENTER] = 0.5
+    private static final float[] HALF_TAPS = design();
+
+    private HalfBand() {
+    }
+
+    private static float[] design() {
+        double[] even = new double[CENTER + 1];
+        double sum = 0;
+        for (int j = 0; j <= CENTER; j++) {
+            int n = 2 * j;
+            double t = (n - CENTER) / 2.0; // never 0, CENTER is odd
+            double sinc = Math.sin(Math.PI * t) / (Math.PI * t);
+            double phase = 2 * Math.PI * n / (TAPS - 1);
+            double window = 0.42 - 0.5 * Math.cos(phase) + 0.08 * Math.cos(2 * phase); // Blackman
+            even[j] = 0.5 * sinc * window;
+            sum += even[j];
+        }
+        // Unity gain at DC: the even branch has to sum to 0.5 next to the 0.5 centre tap
+        float[] half = new float[PAIRS];
+        for (int j = 0; j < PAIRS; j++) half[j] = (float) (even[j] * 0.5 / sum);
+        return half;
+    }
+
+    // 2:1 decimator, keeps the anti-alias state between calls
+    public static final class Decimator {
+        private static final int HISTORY = 2 * CENTER;
+        private final float[] buf; // last HISTORY inputs followed by the current block
+        private boolean skipFirst;  // the previous block ended on an emitted sample
+
+        public Decimator(int maxFrames) {
+            buf = new float[HISTORY + maxFrames];
+        }
+
+        // Consumes n samples of in, writes the decimated ones to out and returns how many
+        // (n / 2, rounded either way depending on where the previous call stopped)
+        public int process(float[] in, int n, float[] out) {
+            final float[] h = HALF_TAPS;
+            final float[] x = buf;
+            System.arraycopy(in, 0, x, HISTORY, n);
+            int produced = 0;
+            for (int t = skipFirst ? 1 : 0; t < n; t += 2) {
+                int base = HISTORY + t; // x[base - k] is the input k samples back
+                float acc = 0.5f * x[base - CENTER];
+                for (int j = 0; j < PAIRS; j++) {
+                    acc += h[j] * (x[base - 2 * j] + x[base - 2 * CENTER + 2 * j]);
+                }
+                out[produced++] = acc;
+            }
+            skipFirst = ((skipFirst ? 1 : 0) + n) % 2 == 1;
+            System.arraycopy(x, n, x, 0, HISTORY);
+            return produced;
+        }
+
+        public void reset() {
+            java.util.Arrays.fill(buf, 0f);
+            skipFirst = false;
+        }
+    }
+
+    // 1:2 interpolator (zero stuffing + half-band, gain 2 so the level is kept)
+    public static final class Interpolator {
+        private static final int HISTORY = CENTER;
+        private final float[] buf;
+
+        public Interpolator(int maxFrames) {
+            buf = new float[HISTORY + maxFrames];
+        }
+
+        // Consumes n samples of in and writes 2 * n samples to out
+        public int process(float[] in, int n, float[] out) {
+            final float[] h = HALF_TAPS;
+            final float[] u = buf;
+            System.arraycopy(in, 0, u, HISTORY, n);
+            for (int i = 0; i < n; i++) {
+                int base = HISTORY + i; // u[base - j] is the input j samples back
+                float even = 0f;
+                for (int j = 0; j < PAIRS; j++) {
+                    even += h[j] * (u[base - j] + u[base - CENTER + j]);
+                }
+                out[2 * i] = 2f * even;
+                out[2 * i + 1] = u[base - (CENTER - 1) / 2];
+            }
+            System.arraycopy(u, n, u, 0, HISTORY);
+            return 2 * n;
+        }
+
+        public void reset() {
+            java.util.Arrays.fill(buf, 0f);
+        }
+    }
+}
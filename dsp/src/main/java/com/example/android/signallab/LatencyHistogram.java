@@ -0,0 +1,90 @@
+package com.example.android.signallab;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Fixed bucket histogram of durations in nanoseconds for one writer thread (the stage
+// being timed) and any number of readers. Buckets are log2 with four linear steps per
+// octave, so a value is reported to within 25% over the whole range. record() is a few
+// arithmetic ops and two ordered stores: no locks, no allocation.
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 2;
+    private static final int SUB = 1 << SUB_BITS;
+    static final int BUCKETS = 64 * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray totals = new AtomicLongArray(2); // count, max
+
+    // Writer thread only
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        int bucket = bucketOf(nanos);
+        counts.lazySet(bucket, counts.get(bucket) + 1);
+        totals.lazySet(0, totals.get(0) + 1);
+        if (nanos > totals.get(1)) totals.lazySet(1, nanos);
+    }
+
+    // Consistent enough for display: buckets are read one by one while the writer keeps
+    // going, so the total can be off by the few samples recorded meanwhile
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) copy[i] = counts.get(i);
+        return new Snapshot(copy, totals.get(0), totals.get(1));
+    }
+
+    // Only safe while nothing is recording
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        totals.set(0, 0);
+        totals.set(1, 0);
+    }
+
+    static int bucketOf(long nanos) {
+        if (nanos < SUB) return (int) nanos;
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB - 1);
+        return (exponent - SUB_BITS + 1) * SUB + sub;
+    }
+
+    // Largest value that lands in bucket
+    static long upperBound(int bucket) {
+        if (bucket < SUB) return bucket;
+        int exponent = bucket / SUB + SUB_BITS - 1;
+        long sub = bucket % SUB;
+        long lower = (1L << exponent) + (sub << (exponent - SUB_BITS));
+        return lower + (1L << (exponent - SUB_BITS)) - 1;
+    }
+
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMaxNanos() {
+            return max;
+        }
+
+        // Upper bound of the bucket holding the given fraction (0..1) of the samples
+        public long percentileNanos(double fraction) {
+            long total = 0;
+            for (long c : counts) total += c;
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(fraction * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && counts[i] > 0) return Math.min(upperBound(i), max);
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.android.signallab;
+
+import org.jtransforms.fft.FloatFFT_1D;
+
+// Linear phase version of a FilterBank: the bank's magnitude response is sampled,
+// turned into a symmetric FIR by frequency sampling and run through one
+// PartitionedConvolver per channel. Every frequency is delayed by the same taps / 2
+// samples, so nothing smears around the crossovers.
+public class LinearPhaseEq {
+    private final int channels;
+    private final int taps;
+    private final int partitionSize;
+    private final PartitionedConvolver[] convolvers;
+    private final float[] channelIn;
+    private final float[] channelOut;
+
+    // taps: FIR length (even, e.g. 4096..16384). partitionSize: convolver block, a power
+    // of two; smaller means less latency and more CPU.
+    public LinearPhaseEq(int channels, int maxFrames, int taps, int partitionSize) {
+        if (taps < 2 || taps % 2 != 0) {
+            throw new IllegalArgumentException("taps must be even, got " + taps);
+        }
+        this.channels = channels;
+        this.taps = taps;
+        this.partitionSize = partitionSize;
+        convolvers = new PartitionedConvolver[channels];
+        for (int ch = 0; ch < channels; ch++) {
+            convolvers[ch] = new PartitionedConvolver(partitionSize, taps);
+        }
+        channelIn = new float[maxFrames];
+        channelOut = new float[maxFrames];
+    }
+
+    // Redesigns the FIR from the bank's current settings and publishes it to the audio
+    // thread. Runs two FFTs of taps points plus one per partition, keep it off the audio
+    // thread.
+    public synchronized void design(FilterBank bank) {
+        float[] ir = designFir(bank, taps);
+        PartitionedConvolver.Kernel kernel = convolvers[0].createKernel(ir);
+        for (PartitionedConvolver convolver : convolvers) {
+            convolver.setKernel(kernel); // same block size, the kernel can be shared
+        }
+    }
+
+    // Same interleaved layout as FilterBank.process
+    public void process(float[] in, float[] out, int frames) {
+        if (channels == 1) {
+            convolvers[0].process(in, 0, out, 0, frames);
+            return;
+        }
+        for (int ch = 0; ch < channels; ch++) {
+            for (int i = 0, j = ch; i < frames; i++, j += channels) channelIn[i] = in[j];
+            convolvers[ch].process(channelIn, 0, channelOut, 0, frames);
+            for (int i = 0, j = ch; i < frames; i++, j += channels) out[j] = channelOut[i];
+        }
+    }
+
+    public void reset() {
+        for (PartitionedConvolver convolver : convolvers) convolver.reset();
+    }
+
+    // Total delay in samples: the FIR's group delay plus the convolver block
+    public int getLatency() {
+        return taps / 2 + partitionSize;
+    }
+
+    public int getTaps() {
+        return taps;
+    }
+
+    public int getPartitionSize() {
+        return partitionSize;
+    }
+
+    // Frequency sampling: zero phase spectrum from |H(f)| -> inverse FFT -> rotate by
+    // taps / 2 -> Blackman window
+    static float[] designFir(FilterBank bank, int taps) {
+        double sampleRate = bank.getSampleRate();
+        float[] spectrum = new float[taps];
+        spectrum[0] = (float) bank.magnitudeAt(0);
+        spectrum[1] = (float) bank.magnitudeAt(sampleRate / 2); // packed Nyquist bin
+        for (int k = 1; k < taps / 2; k++) {
+            spectrum[2 * k] = (float) bank.magnitudeAt(k * sampleRate / taps);
+            spectrum[2 * k + 1] = 0f;
+        }
+        new FloatFFT_1D(taps).realInverse(spectrum, true);
+
+        float[] ir = new float[taps];
+        int half = taps / 2;
+        for (int n = 0; n < taps; n++) {
+            double phase = 2 * Math.PI * n / taps;
+            double window = 0.42 - 0.5 * Math.cos(phase) + 0.08 * Math.cos(2 * phase);
+            ir[n] = (float) (spectrum[(n + half) % taps] * window);
+        }
+        return ir;
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.android.signallab;
+
+import java.util.Arrays;
+
+// One FilterBank band run at a reduced sample rate: the input is halved `stages` times
+// with HalfBand decimators, the band's biquads run at sampleRate / 2^stages, and the
+// result is interpolated back up. Low bands only carry content far below the full
+// rate Nyquist, so this does the expensive (and steep, high order) filtering on a
+// fraction of the samples.
+//
+// Output is delayed by latency(stages) samples; FilterBank delays the full rate bands by
+// the same amount so the sum lines up.
+final class MultirateBand {
+    private final int stages;
+    private final HalfBand.Decimator[] decimators;
+    private final HalfBand.Interpolator[] interpolators;
+    private final FilterBank lowBank; // the band's sections at the low rate
+    private final float[][] stageFrames; // stageFrames[s] holds the signal at rate / 2^s
+
+    // Produced samples wait here until they're asked for. The chain can run up to
+    // 2^stages - 1 samples ahead of its input.
+    private final float[] fifo;
+    private final int extraDelay;
+    private int fifoRead;
+    private int fifoCount;
+
+    MultirateBand(double sampleRate, int maxFrames, int stages, FilterBank.Band band, int extraDelay) {
+        this.stages = stages;
+        int factor = 1 << stages;
+        decimators = new HalfBand.Decimator[stages];
+        interpolators = new HalfBand.Interpolator[stages];
+        stageFrames = new float[stages + 1][];
+        for (int s = 0; s <= stages; s++) {
+            stageFrames[s] = new float[(maxFrames >> s) + 2];
+        }
+        stageFrames[0] = new float[maxFrames + factor];
+        for (int s = 0; s < stages; s++) {
+            decimators[s] = new HalfBand.Decimator(stageFrames[s].length);
+            interpolators[s] = new HalfBand.Interpolator(stageFrames[s + 1].length);
+        }
+        int lowFrames = stageFrames[stages].length;
+        lowBank = new FilterBank(sampleRate / factor, 1, lowFrames, FilterBank.Topology.PARALLEL, band);
+
+        this.extraDelay = extraDelay;
+        fifo = new float[maxFrames + factor + extraDelay];
+        fifoCount = extraDelay; // zeros, aligns this band with the slowest one
+    }
+
+    // Delay of the decimate / interpolate chain in full rate samples
+    static int latency(int stages) {
+        return 2 * HalfBand.CENTER * ((1 << stages) - 1);
+    }
+
+    int getStages() {
+        return stages;
+    }
+
+    void setBand(double freq, double q, Filter.Type type) {
+        lowBank.setBand(0, freq, q, type);
+    }
+
+    // Filters frames samples of in into out, exactly frames out for frames in
+    void process(float[] in, float[] out, int frames) {
+        // Down
+        int n = frames;
+        float[] src = in;
+        for (int s = 0; s < stages; s++) {
+            n = decimators[s].process(src, n, stageFrames[s + 1]);
+            src = stageFrames[s + 1];
+        }
+
+        // The band itself, at the low rate
+        float[] low = stageFrames[stages];
+        lowBank.process(low, low, n);
+
+        // Up
+        for (int s = stages - 1; s >= 0; s--) {
+            n = interpolators[s].process(stageFrames[s + 1], n, stageFrames[s]);
+        }
+
+        // Queue what came out, hand back exactly frames samples
+        float[] up = stageFrames[0];
+        int cap = fifo.length;
+        int write = (fifoRead + fifoCount) % cap;
+        for (int i = 0; i < n; i++) {
+            fifo[write] = up[i];
+            write = write + 1 == cap ? 0 : write + 1;
+        }
+        fifoCount += n;
+        for (int i = 0; i < frames; i++) {
+            out[i] = fifo[fifoRead];
+            fifoRead = fifoRead + 1 == cap ? 0 : fifoRead + 1;
+        }
+        fifoCount -= frames;
+    }
+
+    void reset() {
+        for (HalfBand.Decimator d : decimators) d.reset();
+        for (HalfBand.Interpolator i : interpolators) i.reset();
+        lowBank.reset();
+        Arrays.fill(fifo, 0f);
+        fifoRead = 0;
+        fifoCount = extraDelay;
+    }
+}
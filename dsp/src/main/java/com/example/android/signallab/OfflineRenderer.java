@@ -0,0 +1,106 @@
+package com.example.android.signallab;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+// Headless renderer: streams a 16-bit little endian mono .raw file (the same format
+// RecorderActivity writes and audiotest.m reads) through EqProcessor and writes the
+// result in the same format, as fast as the CPU allows.
+//
+// usage: OfflineRenderer <in.raw> <out.raw> [bassGain midGain trebleGain] [sampleRate]
+public class OfflineRenderer {
+    public static final int DEFAULT_SAMPLE_RATE = 44100;
+    private static final int BLOCK_SIZE = 4096; // samples per read/process/write
+
+    private final EqProcessor eq;
+    private final int sampleRate;
+
+    private final ByteBuffer inBytes = ByteBuffer.allocateDirect(BLOCK_SIZE * 2).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer outBytes = ByteBuffer.allocateDirect(BLOCK_SIZE * 2).order(ByteOrder.LITTLE_ENDIAN);
+    private final float[] inFrame = new float[BLOCK_SIZE];
+    private final float[] outFrame = new float[BLOCK_SIZE];
+
+    public OfflineRenderer(int sampleRate) {
+        this.sampleRate = sampleRate;
+        this.eq = new EqProcessor(sampleRate, BLOCK_SIZE);
+    }
+
+    public EqProcessor getEq() {
+        return eq;
+    }
+
+    // Renders everything in to out, returns the number of samples written
+    public long render(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        eq.reset();
+        long total = 0;
+        boolean eof = false;
+        while (!eof) {
+            // Fill a whole block unless the input ends
+            inBytes.clear();
+            while (inBytes.hasRemaining()) {
+                if (in.read(inBytes) < 0) {
+                    eof = true;
+                    break;
+                }
+            }
+            inBytes.flip();
+            int n = inBytes.remaining() / 2; // a trailing odd byte is dropped
+            if (n == 0) break;
+
+            for (int i = 0; i < n; i++) {
+                inFrame[i] = inBytes.getShort() / 32768f; // Convert PCM16 to float
+            }
+            eq.process(inFrame, outFrame, n);
+
+            outBytes.clear();
+            for (int i = 0; i < n; i++) {
+                outBytes.putShort(SampleStore.toPcm16(outFrame[i]));
+            }
+            outBytes.flip();
+            while (outBytes.hasRemaining()) {
+                out.write(outBytes);
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    public long render(Path input, Path output) throws IOException {
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return render(in, out);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 && args.length != 5 && args.length != 6) {
+            System.err.println("usage: OfflineRenderer <in.raw> <out.raw> [bassGain midGain trebleGain] [sampleRate]");
+            System.exit(2);
+        }
+        int sampleRate = args.length == 6 ? Integer.parseInt(args[5]) : DEFAULT_SAMPLE_RATE;
+        OfflineRenderer renderer = new OfflineRenderer(sampleRate);
+        if (args.length >= 5) {
+            renderer.eq.setBassGain(Float.parseFloat(args[2]));
+            renderer.eq.setMidGain(Float.parseFloat(args[3]));
+            renderer.eq.setTrebleGain(Float.parseFloat(args[4]));
+        }
+
+        long start = System.nanoTime();
+        long samples = renderer.render(Paths.get(args[0]), Paths.get(args[1]));
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        double audioSeconds = (double) samples / sampleRate;
+
+        // Real-time factor: seconds of audio rendered per second of wall time
+        System.out.printf(Locale.ROOT, "Rendered %d samples (%.2f s of audio) in %.3f s, %.1fx real time%n",
+                samples, audioSeconds, elapsed, audioSeconds / Math.max(elapsed, 1e-9));
+    }
+}
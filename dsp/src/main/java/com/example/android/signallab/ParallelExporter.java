@@ -0,0 +1,240 @@
+package com.example.android.signallab;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Renders a whole take through a copy of an EqProcessor on every core of a ForkJoinPool
+// and writes it as WAV or raw PCM16.
+//
+// The take is cut into chunks rendered side by side. The biquads are what makes that
+// hard: a chunk needs the filter state the previous one ends with. The bank is linear in
+// that state, so it comes in three passes:
+//   1. every chunk is filtered from zero state, remembering the state it ends in
+//   2. the real start states are chained through with the bank's transition matrix,
+//      state(k + 1) = T * state(k) + zeroState(k), which is cheap and sequential
+//   3. every chunk is rendered again from its real state and written out
+// Chunks start WARMUP samples early and throw those away, so the soft clip filters
+// are primed the same way, and every chunk lines up with the BLOCK grid the sequential
+// render uses (the clipper decides per block).
+//
+// The result is not bit exact with a sequential render of the same chain: the chained
+// start states are computed in double while the chunks filter in float, and those
+// rounding differences are all it takes to tip a sample into the neighbouring PCM16
+// code. What holds is that no sample is off by more than 1 LSB, and only a handful are
+// at all, up to about 1 in 10,000 for long series banks like graphic31 and fewer for
+// the three band EQ (ParallelExporterTest checks both). Linear phase FIRs have no
+// feedback: their chunks just start early by the FIR length and come out bit exact.
+// Banks with multirate bands are rendered in one piece.
+public class ParallelExporter {
+    public enum Format { WAV, RAW }
+
+    private static final int BLOCK = 4096;              // samples per process call, as in OfflineRenderer
+    private static final int WARMUP = BLOCK;            // covers the soft clip filters' memory
+    private static final int MIN_CHUNK = 64 * BLOCK;    // ~6 s at 44.1 kHz
+    private static final int CHUNKS_PER_WORKER = 4;     // some slack for uneven workers
+    private static final int WAV_HEADER = 44;
+
+    private final EqProcessor eq;
+    private final ForkJoinPool pool;
+
+    public ParallelExporter(EqProcessor eq) {
+        this(eq, ForkJoinPool.commonPool());
+    }
+
+    // Settings are taken from eq when export() starts, later changes don't affect it
+    public ParallelExporter(EqProcessor eq, ForkJoinPool pool) {
+        this.eq = eq;
+        this.pool = pool;
+    }
+
+    // Writes everything in the store, returns the number of frames written
+    public long export(SampleStore in, Path out, Format format) throws IOException {
+        EqProcessor template = eq.copy(in.getChannels(), BLOCK);
+        FilterBank bank = template.getBank();
+        int channels = bank.getChannels();
+        int frames = in.size() / channels;
+        long headerBytes = format == Format.WAV ? WAV_HEADER : 0;
+
+        try (FileChannel channel = FileChannel.open(out, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (format == Format.WAV) {
+                writeFully(channel, wavHeader((int) bank.getSampleRate(), channels, frames * channels * 2L), 0);
+            }
+            new Job(template, in, channel, headerBytes, frames).run();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return frames;
+    }
+
+    private final class Job {
+        final EqProcessor template;
+        final SampleStore in;
+        final FileChannel out;
+        final long headerBytes;
+        final int frames;
+        final int channels;
+        final int chunk;     // frames per chunk, a multiple of the alignment
+        final int chunks;
+        final int warmup;    // frames rendered before each chunk and discarded
+        final boolean iir;
+
+        Job(EqProcessor template, SampleStore in, FileChannel out, long headerBytes, int frames) {
+            this.template = template;
+            this.in = in;
+            this.out = out;
+            this.headerBytes = headerBytes;
+            this.frames = frames;
+            this.channels = template.getBank().getChannels();
+
+            LinearPhaseEq lp = template.getLinearPhase();
+            iir = lp == null;
+            int align = iir ? BLOCK : Math.max(BLOCK, lp.getPartitionSize());
+            warmup = iir ? WARMUP : roundUp(lp.getTaps() + lp.getPartitionSize() + WARMUP, align);
+            boolean splittable = !iir || template.getBank().getLatency() == 0;
+            int workers = splittable ? pool.getParallelism() : 1;
+            int size = roundUp(Math.max(MIN_CHUNK, frames / (workers * CHUNKS_PER_WORKER) + 1), align);
+            chunk = splittable ? size : Math.max(roundUp(frames, align), align);
+            chunks = Math.max(1, (frames + chunk - 1) / chunk);
+        }
+
+        void run() {
+            double[][][] starts = iir && chunks > 1 ? chainStates(zeroStates()) : null;
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (int k = 0; k < chunks; k++) {
+                int index = k;
+                tasks.add(ForkJoinTask.adapt(() -> render(index, starts == null ? null : starts[index])));
+            }
+            invokeAll(tasks);
+        }
+
+        // Pass 1: per chunk but the last, per channel, the state zero state filtering
+        // leaves at chunk - warmup (index 0) and at the end of the chunk (index 1)
+        double[][][][] zeroStates() {
+            double[][][][] zero = new double[chunks - 1][][][];
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (int k = 0; k < chunks - 1; k++) {
+                int index = k;
+                tasks.add(ForkJoinTask.adapt(() -> zero[index] = filterFromZero(index)));
+            }
+            invokeAll(tasks);
+            return zero;
+        }
+
+        double[][][] filterFromZero(int k) {
+            FilterBank bank = template.getBank().copy(channels, BLOCK);
+            int n = bank.getSectionCount() * 2;
+            double[][][] states = new double[2][channels][n];
+            float[] buffer = new float[BLOCK * channels];
+            int start = k * chunk;
+            for (int pos = 0; pos < chunk; pos += BLOCK) {
+                if (pos == chunk - warmup) {
+                    for (int ch = 0; ch < channels; ch++) bank.getState(ch, states[0][ch]);
+                }
+                in.read((start + pos) * channels, buffer, 0, BLOCK * channels);
+                bank.process(buffer, buffer, BLOCK);
+            }
+            for (int ch = 0; ch < channels; ch++) bank.getState(ch, states[1][ch]);
+            return states;
+        }
+
+        // Pass 2: the state every chunk's warmup starts from, null for the first chunk
+        double[][][] chainStates(double[][][][] zero) {
+            FilterBank bank = template.getBank();
+            int n = bank.getSectionCount() * 2;
+            double[] toWarmup = bank.transition(chunk - warmup);
+            double[] toEnd = bank.transition(chunk);
+            double[][][] starts = new double[chunks][][];
+            double[][] state = new double[channels][n]; // at the start of chunk k
+            for (int k = 0; k + 1 < chunks; k++) {
+                double[][] warm = new double[channels][];
+                double[][] next = new double[channels][];
+                for (int ch = 0; ch < channels; ch++) {
+                    warm[ch] = apply(toWarmup, state[ch], zero[k][0][ch], n);
+                    next[ch] = apply(toEnd, state[ch], zero[k][1][ch], n);
+                }
+                starts[k + 1] = warm;
+                state = next;
+            }
+            return starts;
+        }
+
+        // Pass 3
+        void render(int k, double[][] warmState) {
+            EqProcessor chain = template.copy(channels, BLOCK);
+            int start = k * chunk;
+            int end = Math.min(start + chunk, frames);
+            int pos = Math.max(0, start - warmup);
+            if (warmState != null) {
+                for (int ch = 0; ch < channels; ch++) chain.getBank().setState(ch, warmState[ch]);
+            }
+            float[] inFrame = new float[BLOCK * channels];
+            float[] outFrame = new float[BLOCK * channels];
+            ByteBuffer bytes = ByteBuffer.allocateDirect(BLOCK * channels * 2).order(ByteOrder.LITTLE_ENDIAN);
+            try {
+                while (pos < end) {
+                    int n = Math.min(BLOCK, end - pos);
+                    in.read(pos * channels, inFrame, 0, n * channels);
+                    chain.process(inFrame, outFrame, n);
+                    if (pos >= start) {
+                        bytes.clear();
+                        for (int i = 0; i < n * channels; i++) bytes.putShort(SampleStore.toPcm16(outFrame[i]));
+                        bytes.flip();
+                        writeFully(out, bytes, headerBytes + (long) pos * channels * 2);
+                    }
+                    pos += n;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void invokeAll(List<ForkJoinTask<?>> tasks) {
+            for (ForkJoinTask<?> task : tasks) pool.execute(task);
+            for (ForkJoinTask<?> task : tasks) task.join();
+        }
+    }
+
+    // t * state + zero
+    private static double[] apply(double[] t, double[] state, double[] zero, int n) {
+        double[] result = zero.clone();
+        for (int i = 0; i < n; i++) {
+            double sum = 0;
+            for (int j = 0; j < n; j++) sum += t[i * n + j] * state[j];
+            result[i] += sum;
+        }
+        return result;
+    }
+
+    private static int roundUp(int value, int multiple) {
+        return (value + multiple - 1) / multiple * multiple;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    // Canonical 44 byte PCM16 header, the layout WavPcmSource reads
+    static ByteBuffer wavHeader(int sampleRate, int channels, long dataBytes) {
+        ByteBuffer header = ByteBuffer.allocate(WAV_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[] {'R', 'I', 'F', 'F'}).putInt((int) (36 + dataBytes));
+        header.put(new byte[] {'W', 'A', 'V', 'E'});
+        header.put(new byte[] {'f', 'm', 't', ' '}).putInt(16);
+        header.putShort((short) 1).putShort((short) channels).putInt(sampleRate);
+        header.putInt(sampleRate * channels * 2).putShort((short) (channels * 2)).putShort((short) 16);
+        header.put(new byte[] {'d', 'a', 't', 'a'}).putInt((int) dataBytes);
+        header.flip();
+        return header;
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.android.signallab;
+
+import org.jtransforms.fft.FloatFFT_1D;
+
+import java.util.Arrays;
+
+// Uniformly partitioned overlap-save convolution of one channel with a long FIR.
+// The impulse response is split into partitions of blockSize taps, each kept as a
+// 2*blockSize spectrum; the input spectra go through a frequency domain delay line so
+// every block costs one forward FFT, one multiply-accumulate per partition and one
+// inverse FFT, whatever the filter length. Latency is blockSize samples.
+//
+// Kernels are transformed on the calling thread (setImpulseResponse) and swapped in
+// at the next block with a one block crossfade.
+public class PartitionedConvolver {
+    private final int blockSize;
+    private final int fftSize;
+    private final int maxPartitions;
+    private final FloatFFT_1D fft;
+
+    // Frequency domain delay line, one packed realForward spectrum per partition
+    private final float[][] fdl;
+    private int fdlPos;
+
+    private final float[] inputWindow; // previous block + current block
+    private final float[] inFifo;
+    private final float[] outFifo;
+    private int fifoPos;
+    private final float[] acc;
+    private final float[] accOld;
+
+    public static final class Kernel {
+        final float[][] partitions;
+        final int taps;
+
+        private Kernel(float[][] partitions, int taps) {
+            this.partitions = partitions;
+            this.taps = taps;
+        }
+
+        public int getTaps() {
+            return taps;
+        }
+    }
+
+    private volatile Kernel target;
+    private Kernel active;
+
+    public PartitionedConvolver(int blockSize, int maxTaps) {
+        if (blockSize < 2 || Integer.bitCount(blockSize) != 1) {
+            throw new IllegalArgumentException("blockSize must be a power of two, got " + blockSize);
+        }
+        this.blockSize = blockSize;
+        this.fftSize = blockSize * 2;
+        this.maxPartitions = (maxTaps + blockSize - 1) / blockSize;
+        this.fft = new FloatFFT_1D(fftSize);
+        fdl = new float[maxPartitions][fftSize];
+        inputWindow = new float[fftSize];
+        inFifo = new float[blockSize];
+        outFifo = new float[blockSize];
+        acc = new float[fftSize];
+        accOld = new float[fftSize];
+    }
+
+    // Splits and transforms ir. Expensive, call off the audio thread.
+    public Kernel createKernel(float[] ir) {
+        int partitions = (ir.length + blockSize - 1) / blockSize;
+        if (partitions > maxPartitions) {
+            throw new IllegalArgumentException("Impulse response longer than " + maxPartitions * blockSize + " taps");
+        }
+        float[][] spectra = new float[partitions][fftSize];
+        for (int p = 0; p < partitions; p++) {
+            int n = Math.min(blockSize, ir.length - p * blockSize);
+            System.arraycopy(ir, p * blockSize, spectra[p], 0, n); // zero padded to 2*blockSize
+            fft.realForward(spectra[p]);
+        }
+        return new Kernel(spectra, ir.length);
+    }
+
+    public void setImpulseResponse(float[] ir) {
+        setKernel(createKernel(ir));
+    }
+
+    public void setKernel(Kernel kernel) {
+        target = kernel;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    // Added delay of the convolver itself, not counting the filter's own group delay
+    public int getLatency() {
+        return blockSize;
+    }
+
+    // Convolves len samples of in (from inOff) into out (from outOff). Any len works,
+    // full partitions are computed whenever blockSize samples have been collected.
+    public void process(float[] in, int inOff, float[] out, int outOff, int len) {
+        int done = 0;
+        while (done < len) {
+            int n = Math.min(blockSize - fifoPos, len - done);
+            System.arraycopy(in, inOff + done, inFifo, fifoPos, n);
+            System.arraycopy(outFifo, fifoPos, out, outOff + done, n);
+            fifoPos += n;
+            done += n;
+            if (fifoPos == blockSize) {
+                runBlock();
+                fifoPos = 0;
+            }
+        }
+    }
+
+    public void reset() {
+        for (float[] spectrum : fdl) Arrays.fill(spectrum, 0f);
+        Arrays.fill(inputWindow, 0f);
+        Arrays.fill(inFifo, 0f);
+        Arrays.fill(outFifo, 0f);
+        fifoPos = 0;
+        fdlPos = 0;
+    }
+
+    private void runBlock() {
+        // Slide the input window and transform it into the delay line
+        System.arraycopy(inputWindow, blockSize, inputWindow, 0, blockSize);
+        System.arraycopy(inFifo, 0, inputWindow, blockSize, blockSize);
+        float[] spectrum = fdl[fdlPos];
+        System.arraycopy(inputWindow, 0, spectrum, 0, fftSize);
+        fft.realForward(spectrum);
+
+        Kernel k = target;
+        if (k == null) {
+            Arrays.fill(outFifo, 0f);
+        } else if (k == active || active == null) {
+            convolve(k, acc);
+            System.arraycopy(acc, blockSize, outFifo, 0, blockSize);
+        } else {
+            // New kernel: run both and crossfade across this block. The delay line holds
+            // input spectra only, so the new kernel is valid right away.
+            convolve(k, acc);
+            convolve(active, accOld);
+            float step = 1f / blockSize;
+            for (int i = 0; i < blockSize; i++) {
+                float t = (i + 1) * step;
+                outFifo[i] = accOld[blockSize + i] + t * (acc[blockSize + i] - accOld[blockSize + i]);
+            }
+        }
+        active = k;
+        fdlPos = fdlPos + 1 == maxPartitions ? 0 : fdlPos + 1;
+    }
+
+    // Sum over partitions of X[block - p] * H[p] in the packed format, then back to time
+    private void convolve(Kernel kernel, float[] out) {
+        Arrays.fill(out, 0f);
+        float[][] h = kernel.partitions;
+        int slot = fdlPos;
+        for (int p = 0; p < h.length; p++) {
+            float[] x = fdl[slot];
+            float[] hp = h[p];
+            out[0] += x[0] * hp[0]; // DC, real
+            out[1] += x[1] * hp[1]; // Nyquist, real
+            for (int i = 2; i < fftSize; i += 2) {
+                float xr = x[i], xi = x[i + 1];
+                float hr = hp[i], hi = hp[i + 1];
+                out[i] += xr * hr - xi * hi;
+                out[i + 1] += xr * hi + xi * hr;
+            }
+            slot = slot == 0 ? maxPartitions - 1 : slot - 1;
+        }
+        fft.realInverse(out, true);
+    }
+}
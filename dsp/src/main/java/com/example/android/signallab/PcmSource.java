@@ -0,0 +1,18 @@
+package com.example.android.signallab;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+// Pull based supply of PCM16 samples, e.g. a decoder or a file. read() may block until
+// the producer behind it has data, which is how a slow consumer throttles a fast
+// decoder: nothing is decoded ahead of what has been asked for beyond the source's own
+// bounded buffer.
+public interface PcmSource extends Closeable {
+    int getSampleRate();
+
+    int getChannels();
+
+    // Reads up to length samples (interleaved if getChannels() > 1) into dst. Returns how
+    // many were read, at least 1, or -1 once the source is exhausted.
+    int read(short[] dst, int offset, int length) throws IOException;
+}
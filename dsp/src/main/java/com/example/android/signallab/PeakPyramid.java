@@ -0,0 +1,160 @@
+package com.example.android.signallab;
+
+import java.util.Arrays;
+
+// Min/max overview of a SampleStore for waveform drawing. Level 0 holds the min and
+// max of every 64 frames (over all channels of a multichannel take), each level above
+// summarises 4 entries of the one below, so a column of any width is answered from a
+// handful of entries instead of a scan of the samples under it. Built as samples are
+// appended, never rescanned; ~4% of the sample memory in total (4 bytes per 64
+// samples, plus a third of that for the upper levels).
+//
+// One writer (the store's append, under its lock) and any number of readers. A level's
+// entries are published by its volatile count after the array holding them.
+public final class PeakPyramid {
+    static final int BASE_SHIFT = 6;   // 64 frames per level 0 entry
+    static final int FANOUT_SHIFT = 2; // 4 entries per entry of the next level
+    private static final int BASE = 1 << BASE_SHIFT;
+    private static final int FANOUT = 1 << FANOUT_SHIFT;
+    private static final int LEVELS = (31 - BASE_SHIFT) / FANOUT_SHIFT + 1;
+
+    private static final class Level {
+        volatile short[] data = new short[2 * 256]; // min, max interleaved
+        volatile int count;
+        int pendingFill;                             // entries folded into the next one up
+        short pendingMin = Short.MAX_VALUE;
+        short pendingMax = Short.MIN_VALUE;
+    }
+
+    private final SampleStore store; // for zoom levels finer than level 0
+    private final Level[] levels = new Level[LEVELS];
+    private int blockSamples = BASE; // BASE frames worth of samples
+    private int blockFill;
+    private short blockMin = Short.MAX_VALUE;
+    private short blockMax = Short.MIN_VALUE;
+
+    PeakPyramid(SampleStore store) {
+        this.store = store;
+        for (int i = 0; i < LEVELS; i++) levels[i] = new Level();
+    }
+
+    // Writer: folds appended samples in
+    void append(short[] src, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) append(src[i]);
+    }
+
+    // Float samples are summarised at PCM16 resolution, plenty for drawing
+    void append(float[] src, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) append(SampleStore.toPcm16(src[i]));
+    }
+
+    void append(short sample) {
+        if (sample < blockMin) blockMin = sample;
+        if (sample > blockMax) blockMax = sample;
+        if (++blockFill == blockSamples) {
+            push(0, blockMin, blockMax);
+            blockFill = 0;
+            blockMin = Short.MAX_VALUE;
+            blockMax = Short.MIN_VALUE;
+        }
+    }
+
+    // Writer, while the store is empty
+    void setChannels(int channels) {
+        blockSamples = BASE * channels;
+    }
+
+    // Writer: forget everything, arrays are kept for the next take
+    void clear() {
+        for (Level level : levels) {
+            level.count = 0;
+            level.pendingFill = 0;
+            level.pendingMin = Short.MAX_VALUE;
+            level.pendingMax = Short.MIN_VALUE;
+        }
+        blockFill = 0;
+        blockMin = Short.MAX_VALUE;
+        blockMax = Short.MIN_VALUE;
+    }
+
+    private void push(int index, short min, short max) {
+        Level level = levels[index];
+        int count = level.count;
+        short[] data = level.data;
+        if (2 * count + 2 > data.length) {
+            data = Arrays.copyOf(data, data.length * 2);
+            level.data = data;
+        }
+        data[2 * count] = min;
+        data[2 * count + 1] = max;
+        level.count = count + 1;
+
+        if (index + 1 == LEVELS) return;
+        if (min < level.pendingMin) level.pendingMin = min;
+        if (max > level.pendingMax) level.pendingMax = max;
+        if (++level.pendingFill == FANOUT) {
+            push(index + 1, level.pendingMin, level.pendingMax);
+            level.pendingFill = 0;
+            level.pendingMin = Short.MAX_VALUE;
+            level.pendingMax = Short.MIN_VALUE;
+        }
+    }
+
+    // Fills outMin / outMax[0, columns) with the sample range of each of columns equal
+    // slices of the frames [start, end), exactly. Each column is covered by the coarsest
+    // blocks that fit in it, finer ones at its edges and where the upper levels haven't
+    // summarised the newest frames yet, and raw samples only for what is left under 64
+    // frames at either end. So a redraw costs O(columns) however long the take, also
+    // while it is still growing.
+    public void render(int start, int end, int columns, short[] outMin, short[] outMax) {
+        int channels = store.getChannels();
+        end = Math.min(end, store.size() / channels);
+        long span = Math.max(0, end - start);
+        for (int c = 0; c < columns; c++) {
+            int s0 = (int) (start + span * c / columns);
+            int s1 = (int) (start + span * (c + 1) / columns);
+            if (s1 <= s0) s1 = Math.min(s0 + 1, end);
+            int packed = s1 > s0 ? range(s0, s1, channels) : 0;
+            outMin[c] = (short) (packed >> 16);
+            outMax[c] = (short) packed;
+        }
+    }
+
+    // min << 16 | max & 0xffff over the frames [s0, s1). Walks from s0 taking at each
+    // step the coarsest summarised block that starts there and ends by s1: going up a
+    // level as alignment allows, then back down towards s1, at most FANOUT - 1 blocks
+    // per level each way.
+    private int range(int s0, int s1, int channels) {
+        int min = Short.MAX_VALUE;
+        int max = Short.MIN_VALUE;
+        int pos = s0;
+        while (pos < s1) {
+            int index = -1;
+            int shift = BASE_SHIFT;
+            // A block that's misaligned, too long or not summarised yet is no better a level up
+            while (index + 1 < LEVELS && (pos & ((1 << shift) - 1)) == 0 && s1 - pos >= 1 << shift
+                    && pos >>> shift < levels[index + 1].count) {
+                index++;
+                shift += FANOUT_SHIFT;
+            }
+            if (index < 0) {
+                // under a level 0 block: up to the next block edge, or s1
+                int stop = Math.min(s1, (pos | (BASE - 1)) + 1);
+                for (int i = pos * channels; i < stop * channels; i++) {
+                    short sample = store.get(i);
+                    if (sample < min) min = sample;
+                    if (sample > max) max = sample;
+                }
+                pos = stop;
+            } else {
+                int blockShift = shift - FANOUT_SHIFT;
+                short[] data = levels[index].data; // after its count, see the class comment
+                int e = pos >>> blockShift;
+                min = Math.min(min, data[2 * e]);
+                max = Math.max(max, data[2 * e + 1]);
+                pos += 1 << blockShift;
+            }
+        }
+        return min << 16 | (max & 0xffff);
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.android.signallab;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Timing and glitch counters for the audio pipeline. Each stage is timed by the one
+// thread that runs it into its own LatencyHistogram; counters are single writer too.
+// Nothing here locks or allocates on the recording side, snapshot() is for the UI.
+public final class PerfMetrics {
+    public enum Stage {
+        CAPTURE_READ,  // AudioRecord.read, includes waiting for the mic
+        EQ,            // EqProcessor.process per playback (or monitoring) block
+        ANALYSIS,      // one spectrum on the analysis thread
+        TRACK_WRITE,   // AudioTrack.write, time spent blocked on the track
+        ROUND_TRIP     // live monitoring, mic to speaker from the streams' timestamps
+    }
+
+    public enum Counter {
+        UNDERRUNS,          // AudioTrack.getUnderrunCount, mirrored by the playback thread
+        DROPPED_ANALYSIS,   // blocks the analysis ring had no room for
+        CAPTURE_OVERRUNS    // reads that came back later than the record buffer lasts
+    }
+
+    private static final PerfMetrics instance = new PerfMetrics();
+
+    private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+    private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+
+    private PerfMetrics() {
+        for (int i = 0; i < stages.length; i++) stages[i] = new LatencyHistogram();
+    }
+
+    public static PerfMetrics getInstance() {
+        return instance;
+    }
+
+    // Typical use: long start = System.nanoTime(); ...; record(stage, start)
+    public void record(Stage stage, long startNanos) {
+        stages[stage.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    // For durations measured some other way than start to now
+    public void recordNanos(Stage stage, long nanos) {
+        stages[stage.ordinal()].record(nanos);
+    }
+
+    public LatencyHistogram histogram(Stage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    // Single writer per counter
+    public void increment(Counter counter) {
+        int i = counter.ordinal();
+        counters.lazySet(i, counters.get(i) + 1);
+    }
+
+    // For counters kept elsewhere (the track's underruns, the ring's drops)
+    public void set(Counter counter, long value) {
+        counters.lazySet(counter.ordinal(), value);
+    }
+
+    public Snapshot snapshot() {
+        LatencyHistogram.Snapshot[] s = new LatencyHistogram.Snapshot[stages.length];
+        for (int i = 0; i < stages.length; i++) s[i] = stages[i].snapshot();
+        long[] c = new long[counters.length()];
+        for (int i = 0; i < c.length; i++) c[i] = counters.get(i);
+        return new Snapshot(s, c);
+    }
+
+    // Only while the pipeline is stopped
+    public void reset() {
+        for (LatencyHistogram h : stages) h.reset();
+        for (int i = 0; i < counters.length(); i++) counters.set(i, 0);
+    }
+
+    public static final class Snapshot {
+        private final LatencyHistogram.Snapshot[] stages;
+        private final long[] counters;
+
+        Snapshot(LatencyHistogram.Snapshot[] stages, long[] counters) {
+            this.stages = stages;
+            this.counters = counters;
+        }
+
+        public LatencyHistogram.Snapshot get(Stage stage) {
+            return stages[stage.ordinal()];
+        }
+
+        public long get(Counter counter) {
+            return counters[counter.ordinal()];
+        }
+
+        // One line per stage (count, p50 / p99 / max in microseconds) then the counters
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Stage stage : Stage.values()) {
+                LatencyHistogram.Snapshot h = get(stage);
+                sb.append(String.format(Locale.US, "%-12s n=%-7d p50 %7.1f  p99 %7.1f  max %7.1f us%n",
+                        stage, h.getCount(), h.percentileNanos(0.5) / 1e3,
+                        h.percentileNanos(0.99) / 1e3, h.getMaxNanos() / 1e3));
+            }
+            for (Counter counter : Counter.values()) {
+                sb.append(String.format(Locale.US, "%-17s %d%n", counter, get(counter)));
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.android.signallab;
+
+import java.util.Arrays;
+
+// Rational sample rate converter for imports, e.g. 44.1 kHz material into a 48 kHz
+// engine (up by 160, down by 147). One Kaiser windowed sinc low pass, designed at
+// inRate * up, split into up phases; each output sample is a single TAPS long dot
+// product with the phase it lands on, nothing at the up rate is ever computed.
+//
+// The cutoff sits at CUTOFF of the lower rate's Nyquist with ~90 dB stopband, so
+// 44.1 <-> 48 kHz keeps the band up to ~18 kHz flat. The filter delay is taken out:
+// output frame 0 lines up with input frame 0, and flush() returns the tail.
+//
+// Interleaved frames in and out, any channel count. Not thread safe.
+public class PolyphaseResampler {
+    private static final int TAPS = 64;             // per phase when converting up
+    private static final double CUTOFF = 0.91;      // of the lower rate's Nyquist
+    private static final double KAISER_BETA = 9.0;  // ~90 dB stopband
+    private static final int MAX_PHASES = 4096;
+
+    private final int inRate;
+    private final int outRate;
+    private final int channels;
+    private final int up;          // phases
+    private final int down;        // input step per output, in phases
+    private final int taps;        // per phase
+    private final float[] coefficients; // [phase * taps + k], k = 0 is the newest sample
+    private final int start;       // filter delay at the up rate, where output 0 is read
+
+    private float[][] history;     // per channel, taps - 1 samples of history then input
+    private int fill;              // where the next input lands in history
+    private int pos;               // newest input of the next output, in history
+    private int phase;             // and its phase
+
+    public PolyphaseResampler(int inRate, int outRate, int channels) {
+        if (inRate <= 0 || outRate <= 0 || channels <= 0) {
+            throw new IllegalArgumentException("Bad conversion: " + inRate + " -> " + outRate
+                    + " Hz, " + channels + " channels");
+        }
+        int gcd = gcd(inRate, outRate);
+        up = outRate / gcd;
+        down = inRate / gcd;
+        if (up > MAX_PHASES) {
+            throw new IllegalArgumentException("Unsupported ratio " + inRate + " -> " + outRate);
+        }
+        this.inRate = inRate;
+        this.outRate = outRate;
+        this.channels = channels;
+
+        // Converting down narrows the cutoff relative to the input, so it needs more taps
+        taps = (int) Math.ceil(TAPS * Math.max(1.0, (double) down / up));
+        coefficients = design(up, taps, CUTOFF * 0.5 * Math.min(1.0, (double) up / down) / up);
+        start = up * taps / 2; // the filter's centre tap
+        history = new float[channels][taps - 1 + 1024];
+        reset();
+    }
+
+    public int getInRate() {
+        return inRate;
+    }
+
+    public int getOutRate() {
+        return outRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    // Upper bound on the frames process() writes for inFrames frames
+    public int maxOutputFrames(int inFrames) {
+        return (int) (((long) inFrames * up + down - 1) / down) + 1;
+    }
+
+    // Converts frames interleaved frames of in, writing to out (room for
+    // maxOutputFrames(frames) frames). Returns the frames written.
+    public int process(float[] in, int frames, float[] out) {
+        int base = taps - 1;
+        int end = fill + frames;
+        ensureCapacity(end);
+        for (int ch = 0; ch < channels; ch++) {
+            float[] h = history[ch];
+            for (int i = 0, j = ch; i < frames; i++, j += channels) h[fill + i] = in[j];
+        }
+        int written = 0;
+        int p = pos;
+        int ph = phase;
+        while (p < end) {
+            int c = ph * taps;
+            for (int ch = 0; ch < channels; ch++) {
+                float[] h = history[ch];
+                float sum = 0f;
+                for (int k = 0; k < taps; k++) sum += coefficients[c + k] * h[p - k];
+                out[written * channels + ch] = sum;
+            }
+            written++;
+            ph += down;
+            p += ph / up;
+            ph %= up;
+        }
+        // Keep the last taps - 1 inputs as history for the next block
+        int shift = end - base;
+        for (float[] h : history) System.arraycopy(h, shift, h, 0, base);
+        fill = base;
+        pos = p - shift;
+        phase = ph;
+        return written;
+    }
+
+    // Pushes zeros through to get the rest of the signal out of the filter, then resets.
+    // out needs room for maxOutputFrames(taps) frames.
+    public int flush(float[] out) {
+        float[] zeros = new float[taps * channels];
+        int written = process(zeros, taps / 2 + 1, out);
+        reset();
+        return written;
+    }
+
+    public void reset() {
+        for (float[] h : history) Arrays.fill(h, 0f);
+        fill = taps - 1;
+        // Output 0 reads the filter at its centre over input 0: the delay is taken out
+        pos = fill + start / up;
+        phase = start % up;
+    }
+
+    private void ensureCapacity(int length) {
+        if (history[0].length >= length) return;
+        for (int ch = 0; ch < channels; ch++) {
+            history[ch] = Arrays.copyOf(history[ch], Math.max(length, history[ch].length * 2));
+        }
+    }
+
+    // Low pass with cutoff (relative to the up rate, 0.5 = Nyquist) split into phases,
+    // scaled by up so each phase has unity gain at DC
+    private static float[] design(int up, int taps, double cutoff) {
+        int length = up * taps;
+        int center = length / 2; // on a tap so the delay is a whole number of up rate samples
+        double norm = besselI0(KAISER_BETA);
+        double[] prototype = new double[length];
+        for (int i = 0; i < length; i++) {
+            double t = i - center;
+            double sinc = t == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * t) / (Math.PI * t);
+            double r = t / center;
+            prototype[i] = sinc * besselI0(KAISER_BETA * Math.sqrt(Math.max(0, 1 - r * r))) / norm;
+        }
+        // Phase p of output sample y(n) uses x(m - k) * h(p + k * up); stored per phase
+        float[] coefficients = new float[length];
+        for (int p = 0; p < up; p++) {
+            for (int k = 0; k < taps; k++) {
+                coefficients[p * taps + k] = (float) (up * prototype[p + k * up]);
+            }
+        }
+        return coefficients;
+    }
+
+    // Zeroth order modified Bessel function, power series
+    private static double besselI0(double x) {
+        double sum = 1, term = 1;
+        double q = x * x / 4;
+        for (int k = 1; k < 50; k++) {
+            term *= q / (k * k);
+            sum += term;
+            if (term < sum * 1e-17) break;
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
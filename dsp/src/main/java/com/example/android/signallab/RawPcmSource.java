@@ -0,0 +1,79 @@
+package com.example.android.signallab;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Headerless 16-bit little endian PCM from any byte channel: a .raw file, a pipe fed by
+// a decoder process, a socket. Reads go straight through a small direct buffer, so the
+// channel's own buffering (e.g. a pipe's) is the only read-ahead.
+public class RawPcmSource implements PcmSource {
+    private static final int BUFFER_BYTES = 8192;
+
+    private final ReadableByteChannel channel;
+    private final int sampleRate;
+    private final int channels;
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private long remainingBytes; // bytes left to read from the channel
+    private boolean eof;
+
+    public RawPcmSource(ReadableByteChannel channel, int sampleRate, int channels) {
+        this(channel, sampleRate, channels, Long.MAX_VALUE);
+    }
+
+    // Stops after dataBytes bytes, for formats with trailing chunks
+    protected RawPcmSource(ReadableByteChannel channel, int sampleRate, int channels, long dataBytes) {
+        if (sampleRate <= 0 || channels <= 0) {
+            throw new IllegalArgumentException("Bad format: " + sampleRate + " Hz, " + channels + " channels");
+        }
+        this.channel = channel;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.remainingBytes = dataBytes;
+        bytes.flip(); // empty
+    }
+
+    public static RawPcmSource open(Path path, int sampleRate, int channels) throws IOException {
+        return new RawPcmSource(FileChannel.open(path, StandardOpenOption.READ), sampleRate, channels);
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannels() {
+        return channels;
+    }
+
+    @Override
+    public int read(short[] dst, int offset, int length) throws IOException {
+        while (bytes.remaining() < 2) {
+            if (eof || remainingBytes <= 0) return -1; // a trailing odd byte is dropped
+            bytes.compact();
+            if (bytes.remaining() > remainingBytes) bytes.limit(bytes.position() + (int) remainingBytes);
+            int n = channel.read(bytes);
+            bytes.limit(bytes.capacity());
+            if (n < 0) {
+                eof = true;
+            } else {
+                remainingBytes -= n;
+            }
+            bytes.flip();
+        }
+        int n = Math.min(length, bytes.remaining() / 2);
+        bytes.asShortBuffer().get(dst, offset, n);
+        bytes.position(bytes.position() + 2 * n);
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.android.signallab;
+
+import java.io.IOException;
+
+// source at another sample rate, converted through a PolyphaseResampler as it is read,
+// so an import is converted once on its way into the store and never again on playback.
+public class ResamplingPcmSource implements PcmSource {
+    private static final int BLOCK = 2048; // frames pulled from the source at a time
+
+    private final PcmSource source;
+    private final PolyphaseResampler resampler;
+    private final int channels;
+    private final short[] in;
+    private final float[] inFloat;
+    private final float[] out;
+    private int carried;   // samples of an incomplete frame left at the start of in
+    private int outPos;    // converted samples in out not handed out yet: outPos .. outEnd
+    private int outEnd;
+    private boolean flushed;
+
+    public ResamplingPcmSource(PcmSource source, int sampleRate) {
+        this.source = source;
+        this.channels = source.getChannels();
+        this.resampler = new PolyphaseResampler(source.getSampleRate(), sampleRate, channels);
+        in = new short[BLOCK * channels];
+        inFloat = new float[BLOCK * channels];
+        out = new float[resampler.maxOutputFrames(BLOCK) * channels];
+    }
+
+    @Override
+    public int getSampleRate() {
+        return resampler.getOutRate();
+    }
+
+    @Override
+    public int getChannels() {
+        return channels;
+    }
+
+    @Override
+    public int read(short[] dst, int offset, int length) throws IOException {
+        while (outPos == outEnd) {
+            if (flushed) return -1;
+            refill();
+        }
+        int n = Math.min(length, outEnd - outPos);
+        for (int i = 0; i < n; i++) dst[offset + i] = SampleStore.toPcm16(out[outPos + i]);
+        outPos += n;
+        return n;
+    }
+
+    // Converts the next block from the source, or the resampler's tail at its end
+    private void refill() throws IOException {
+        outPos = 0;
+        int n = source.read(in, carried, in.length - carried);
+        if (n < 0) {
+            outEnd = resampler.flush(out) * channels; // an incomplete last frame is dropped
+            flushed = true;
+            return;
+        }
+        int total = carried + n;
+        int frames = total / channels;
+        for (int i = 0; i < frames * channels; i++) inFloat[i] = in[i] / 32768f;
+        outEnd = resampler.process(inFloat, frames, out) * channels;
+        carried = total - frames * channels;
+        System.arraycopy(in, frames * channels, in, 0, carried);
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
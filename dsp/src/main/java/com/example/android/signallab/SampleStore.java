@@ -0,0 +1,399 @@
+package com.example.android.signallab;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+// Growable PCM16 sample store. Samples live in fixed size chunks so appending never
+// copies what is already recorded and nothing gets boxed. Multichannel takes are stored
+// interleaved; size(), get() and read() count samples, frames() counts frames.
+//
+// A store created with floatSamples keeps float [-1,1] samples instead, for a float
+// capture -> EQ -> float output path: float reads are then plain copies and nothing is
+// quantised or clipped on the way in. Twice the memory (or spill file) per sample.
+//
+// By default the chunks are short[] on the heap. A store created with a spill file keeps
+// them in that file instead, each chunk a FileChannel.map window, so the heap footprint
+// stays the same however long the take gets and the OS pages audio in and out. Reading
+// into a chunk wakes a read-ahead thread that faults in the next one, so sequential
+// playback doesn't page fault on the audio thread.
+//
+// Every append also feeds a PeakPyramid, so the waveform overview of a take is ready the
+// moment recording or decoding stops.
+public class SampleStore implements Closeable {
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT; // 65536 samples, ~1.5s at 44.1kHz
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final boolean floatSamples;
+    private final long chunkBytes;
+    private short[][] chunks = new short[4][];        // heap mode
+    private float[][] floatChunks = new float[4][];   // heap mode, float samples
+    private ShortBuffer[] mapped = new ShortBuffer[4]; // spill mode
+    private FloatBuffer[] floatMapped = new FloatBuffer[4]; // spill mode, float samples
+    private MappedByteBuffer[] regions = new MappedByteBuffer[4]; // the same chunks as bytes
+    private int chunkCount;
+    private volatile int size; // written by the producer, read by playback
+    private volatile int channels = 1;
+
+    private final Path spillPath;
+    private final FileChannel spill;
+    private final Thread readAhead;
+    private volatile int readAheadChunk = -1; // next chunk to fault in
+    private int lastReadChunk = -1;            // reader side
+    private volatile boolean closed;
+    private final PeakPyramid peaks = new PeakPyramid(this);
+
+    // Heap backed PCM16
+    public SampleStore() {
+        this(false);
+    }
+
+    // Heap backed, float samples if floatSamples
+    public SampleStore(boolean floatSamples) {
+        this.floatSamples = floatSamples;
+        chunkBytes = CHUNK_SIZE * (floatSamples ? 4L : 2L);
+        spillPath = null;
+        spill = null;
+        readAhead = null;
+    }
+
+    // Backed by spillFile, which is created or truncated and deleted again by close()
+    public SampleStore(Path spillFile) throws IOException {
+        this(spillFile, false);
+    }
+
+    public SampleStore(Path spillFile, boolean floatSamples) throws IOException {
+        this.floatSamples = floatSamples;
+        chunkBytes = CHUNK_SIZE * (floatSamples ? 4L : 2L);
+        spillPath = spillFile;
+        spill = FileChannel.open(spillFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        readAhead = new Thread(this::readAheadLoop, "SampleReadAhead");
+        readAhead.setDaemon(true);
+        readAhead.start();
+    }
+
+    public boolean isSpilled() {
+        return spill != null;
+    }
+
+    public boolean isFloat() {
+        return floatSamples;
+    }
+
+    // Sets the interleaving of the next take, the store must be empty (see clear())
+    public synchronized void setChannels(int channels) {
+        if (channels < 1) throw new IllegalArgumentException("channels must be >= 1, got " + channels);
+        if (size != 0) throw new IllegalStateException("Channels can only change while empty");
+        this.channels = channels;
+        peaks.setChannels(channels);
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public PeakPyramid getPeaks() {
+        return peaks;
+    }
+
+    public synchronized void append(short[] src, int offset, int length) {
+        int written = 0;
+        int pos = size;
+        while (written < length) {
+            int inChunk = pos & CHUNK_MASK;
+            int toCopy = Math.min(CHUNK_SIZE - inChunk, length - written);
+            if (floatSamples) {
+                putFloats(pos, toCopy, src, offset + written);
+            } else if (spill == null) {
+                System.arraycopy(src, offset + written, chunkFor(pos), inChunk, toCopy);
+            } else {
+                ShortBuffer chunk = mappedFor(pos);
+                for (int i = 0; i < toCopy; i++) chunk.put(inChunk + i, src[offset + written + i]);
+            }
+            written += toCopy;
+            pos += toCopy;
+        }
+        peaks.append(src, offset, length);
+        size = pos;
+    }
+
+    public void append(short[] src) {
+        append(src, 0, src.length);
+    }
+
+    // float [-1,1], converted to PCM16 (clipped) unless the store keeps floats
+    public synchronized void append(float[] src, int offset, int length) {
+        int written = 0;
+        int pos = size;
+        while (written < length) {
+            int inChunk = pos & CHUNK_MASK;
+            int toCopy = Math.min(CHUNK_SIZE - inChunk, length - written);
+            if (!floatSamples) {
+                for (int i = 0; i < toCopy; i++) putPcm16(pos + i, toPcm16(src[offset + written + i]));
+            } else if (spill == null) {
+                System.arraycopy(src, offset + written, floatChunkFor(pos), inChunk, toCopy);
+            } else {
+                FloatBuffer chunk = floatMappedFor(pos);
+                for (int i = 0; i < toCopy; i++) chunk.put(inChunk + i, src[offset + written + i]);
+            }
+            written += toCopy;
+            pos += toCopy;
+        }
+        peaks.append(src, offset, length);
+        size = pos;
+    }
+
+    public void append(float[] src) {
+        append(src, 0, src.length);
+    }
+
+    // float [-1,1] -> PCM16, clipped (kept as is in a float store)
+    public synchronized void append(float sample) {
+        int pos = size;
+        short pcm = toPcm16(sample);
+        if (floatSamples) {
+            if (spill == null) {
+                floatChunkFor(pos)[pos & CHUNK_MASK] = sample;
+            } else {
+                floatMappedFor(pos).put(pos & CHUNK_MASK, sample);
+            }
+        } else {
+            putPcm16(pos, pcm);
+        }
+        peaks.append(pcm);
+        size = pos + 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int frames() {
+        return size / channels;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // As PCM16 whatever the store keeps
+    public short get(int index) {
+        if (floatSamples) {
+            if (spill != null) return toPcm16(floatMapped[index >>> CHUNK_SHIFT].get(index & CHUNK_MASK));
+            return toPcm16(floatChunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK]);
+        }
+        if (spill != null) return mapped[index >>> CHUNK_SHIFT].get(index & CHUNK_MASK);
+        return chunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    // Copies up to length samples starting at position, returns how many were copied
+    public int read(int position, short[] dst, int offset, int length) {
+        int n = Math.min(length, size - position);
+        int copied = 0;
+        while (copied < n) {
+            int pos = position + copied;
+            int inChunk = pos & CHUNK_MASK;
+            int toCopy = Math.min(CHUNK_SIZE - inChunk, n - copied);
+            if (floatSamples) {
+                for (int i = 0; i < toCopy; i++) dst[offset + copied + i] = get(pos + i);
+            } else if (spill == null) {
+                System.arraycopy(chunks[pos >>> CHUNK_SHIFT], inChunk, dst, offset + copied, toCopy);
+            } else {
+                ShortBuffer chunk = mappedForRead(pos);
+                for (int i = 0; i < toCopy; i++) dst[offset + copied + i] = chunk.get(inChunk + i);
+            }
+            copied += toCopy;
+        }
+        return Math.max(n, 0);
+    }
+
+    // Same as read() but as float [-1,1): converted from PCM16, or copied from a float store
+    public int read(int position, float[] dst, int offset, int length) {
+        int n = Math.min(length, size - position);
+        int copied = 0;
+        while (copied < n) {
+            int pos = position + copied;
+            int inChunk = pos & CHUNK_MASK;
+            int toCopy = Math.min(CHUNK_SIZE - inChunk, n - copied);
+            if (floatSamples && spill == null) {
+                System.arraycopy(floatChunks[pos >>> CHUNK_SHIFT], inChunk, dst, offset + copied, toCopy);
+            } else if (floatSamples) {
+                FloatBuffer chunk = floatMappedForRead(pos);
+                for (int i = 0; i < toCopy; i++) dst[offset + copied + i] = chunk.get(inChunk + i);
+            } else if (spill == null) {
+                short[] chunk = chunks[pos >>> CHUNK_SHIFT];
+                for (int i = 0; i < toCopy; i++) {
+                    dst[offset + copied + i] = chunk[inChunk + i] / 32768f;
+                }
+            } else {
+                ShortBuffer chunk = mappedForRead(pos);
+                for (int i = 0; i < toCopy; i++) {
+                    dst[offset + copied + i] = chunk.get(inChunk + i) / 32768f;
+                }
+            }
+            copied += toCopy;
+        }
+        return Math.max(n, 0);
+    }
+
+    public synchronized void clear() {
+        if (spill == null) {
+            // Drop everything but the first chunk so a new recording doesn't start from zero
+            for (int i = 1; i < chunkCount; i++) {
+                chunks[i] = null;
+                floatChunks[i] = null;
+            }
+            chunkCount = Math.min(chunkCount, 1);
+        }
+        // Mapped chunks stay mapped on purpose and are overwritten by the next take, so the
+        // mapping is bounded by the longest take rather than growing. Java can't unmap a
+        // buffer explicitly, and truncating the file under a live mapping would crash
+        // readers still holding a chunk.
+        size = 0;
+        peaks.clear();
+    }
+
+    // Stops the read-ahead thread, drops the mapped chunks and deletes the spill file.
+    // Heap stores need no close. The mappings themselves go when the GC collects the
+    // buffers, there is no unmap call, so the file's blocks may outlive close() a little.
+    @Override
+    public synchronized void close() throws IOException {
+        if (spill == null || closed) return;
+        closed = true;
+        LockSupport.unpark(readAhead);
+        size = 0;
+        Arrays.fill(regions, null);
+        Arrays.fill(mapped, null);
+        Arrays.fill(floatMapped, null);
+        chunkCount = 0;
+        spill.close();
+        Files.deleteIfExists(spillPath);
+    }
+
+    private short[] chunkFor(int pos) {
+        int index = pos >>> CHUNK_SHIFT;
+        if (index >= chunkCount) {
+            if (index >= chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunks.length * 2);
+            }
+            chunks[index] = new short[CHUNK_SIZE];
+            chunkCount = index + 1;
+        }
+        return chunks[index];
+    }
+
+    private float[] floatChunkFor(int pos) {
+        int index = pos >>> CHUNK_SHIFT;
+        if (index >= chunkCount) {
+            if (index >= floatChunks.length) {
+                floatChunks = Arrays.copyOf(floatChunks, floatChunks.length * 2);
+            }
+            floatChunks[index] = new float[CHUNK_SIZE];
+            chunkCount = index + 1;
+        }
+        return floatChunks[index];
+    }
+
+    private ShortBuffer mappedFor(int pos) {
+        map(pos >>> CHUNK_SHIFT);
+        return mapped[pos >>> CHUNK_SHIFT];
+    }
+
+    private FloatBuffer floatMappedFor(int pos) {
+        map(pos >>> CHUNK_SHIFT);
+        return floatMapped[pos >>> CHUNK_SHIFT];
+    }
+
+    private void map(int index) {
+        if (index < chunkCount) return;
+        if (index >= regions.length) {
+            regions = Arrays.copyOf(regions, regions.length * 2);
+            mapped = Arrays.copyOf(mapped, mapped.length * 2);
+            floatMapped = Arrays.copyOf(floatMapped, floatMapped.length * 2);
+        }
+        try {
+            // Mapping past the end grows the file
+            MappedByteBuffer region = spill.map(FileChannel.MapMode.READ_WRITE, index * chunkBytes, chunkBytes);
+            regions[index] = region;
+            region.order(ByteOrder.nativeOrder());
+            if (floatSamples) {
+                floatMapped[index] = region.asFloatBuffer();
+            } else {
+                mapped[index] = region.asShortBuffer();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Spill file full or unavailable", e);
+        }
+        chunkCount = index + 1;
+    }
+
+    // Stores PCM16 samples into a float store
+    private void putFloats(int pos, int count, short[] src, int offset) {
+        int inChunk = pos & CHUNK_MASK;
+        if (spill == null) {
+            float[] chunk = floatChunkFor(pos);
+            for (int i = 0; i < count; i++) chunk[inChunk + i] = src[offset + i] / 32768f;
+        } else {
+            FloatBuffer chunk = floatMappedFor(pos);
+            for (int i = 0; i < count; i++) chunk.put(inChunk + i, src[offset + i] / 32768f);
+        }
+    }
+
+    private void putPcm16(int pos, short sample) {
+        if (spill == null) {
+            chunkFor(pos)[pos & CHUNK_MASK] = sample;
+        } else {
+            mappedFor(pos).put(pos & CHUNK_MASK, sample);
+        }
+    }
+
+    // Reader side: entering a new chunk asks for the one after it to be paged in
+    private ShortBuffer mappedForRead(int pos) {
+        readingChunk(pos >>> CHUNK_SHIFT);
+        return mapped[pos >>> CHUNK_SHIFT];
+    }
+
+    private FloatBuffer floatMappedForRead(int pos) {
+        readingChunk(pos >>> CHUNK_SHIFT);
+        return floatMapped[pos >>> CHUNK_SHIFT];
+    }
+
+    private void readingChunk(int index) {
+        if (index != lastReadChunk) {
+            lastReadChunk = index;
+            readAheadChunk = index + 1;
+            LockSupport.unpark(readAhead);
+        }
+    }
+
+    private void readAheadLoop() {
+        int done = -1;
+        while (!closed) {
+            int index = readAheadChunk;
+            MappedByteBuffer[] r = regions;
+            MappedByteBuffer region = index >= 0 && index < r.length ? r[index] : null;
+            if (index == done || region == null) {
+                LockSupport.park(this); // also when the next chunk isn't written yet
+                continue;
+            }
+            region.load();
+            done = index;
+        }
+    }
+
+    static short toPcm16(float sample) {
+        sample = Math.max(-1f, Math.min(1f, sample)); // clip to -1..1 just in case
+        return (short) (sample * 32767);
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.android.signallab;
+
+// tanh saturation at the end of the EQ chain. Uses a [7/6] Pade approximation of tanh
+// in float (within MAX_ERROR of Math.tanh everywhere) instead of a double Math.tanh
+// per sample, and can run at 2x or 4x the sample rate through HalfBand filters so the
+// harmonics the curve adds at high gains don't fold back below Nyquist.
+//
+// Blocks whose peak stays under KNEE are passed through untouched: tanh(x) is within
+// MAX_ERROR of x there.
+public class SoftClipper {
+    public static final float MAX_ERROR = 1e-4f;
+    public static final float KNEE = 0.066f;     // |tanh(x) - x| < x^3 / 3 < MAX_ERROR
+    private static final float CLAMP = 4.97f;    // the approximation reaches 1 here
+
+    private final int channels;
+    private final int oversampling;
+    private final int stages;
+    private final HalfBand.Interpolator[][] up;  // [channel][stage]
+    private final HalfBand.Decimator[][] down;
+    private final float[][] stageFrames;          // stageFrames[s] is at rate * 2^s
+
+    // oversampling is 1, 2 or 4
+    public SoftClipper(int channels, int maxFrames, int oversampling) {
+        if (oversampling != 1 && oversampling != 2 && oversampling != 4) {
+            throw new IllegalArgumentException("oversampling must be 1, 2 or 4, got " + oversampling);
+        }
+        this.channels = channels;
+        this.oversampling = oversampling;
+        this.stages = Integer.numberOfTrailingZeros(oversampling);
+        up = new HalfBand.Interpolator[channels][stages];
+        down = new HalfBand.Decimator[channels][stages];
+        stageFrames = new float[stages + 1][];
+        for (int s = 0; s <= stages; s++) stageFrames[s] = new float[maxFrames << s];
+        for (int ch = 0; ch < channels; ch++) {
+            for (int s = 0; s < stages; s++) {
+                up[ch][s] = new HalfBand.Interpolator(maxFrames << s);
+                down[ch][s] = new HalfBand.Decimator(maxFrames << (s + 1));
+            }
+        }
+    }
+
+    // Saturates frames interleaved frames of buffer in place
+    public void process(float[] buffer, int frames) {
+        int n = frames * channels;
+        if (stages == 0) {
+            if (peak(buffer, n) >= KNEE) saturate(buffer, n);
+            return;
+        }
+        // Still run the filters below the knee so their state and delay stay consistent
+        boolean bypass = peak(buffer, n) < KNEE;
+        for (int ch = 0; ch < channels; ch++) {
+            float[] base = stageFrames[0];
+            for (int i = 0, j = ch; i < frames; i++, j += channels) base[i] = buffer[j];
+
+            int len = frames;
+            for (int s = 0; s < stages; s++) {
+                len = up[ch][s].process(stageFrames[s], len, stageFrames[s + 1]);
+            }
+            if (!bypass) saturate(stageFrames[stages], len);
+            for (int s = stages - 1; s >= 0; s--) {
+                len = down[ch][s].process(stageFrames[s + 1], len, stageFrames[s]);
+            }
+
+            for (int i = 0, j = ch; i < frames; i++, j += channels) buffer[j] = base[i];
+        }
+    }
+
+    // Delay in whole samples, 0 without oversampling. Each stage delays by HalfBand.CENTER
+    // at its higher rate on the way up and again on the way down, 2 * CENTER / 2^s at the
+    // base rate. That's 15 at 2x but 22.5 at 4x: the half sample can't be compensated by
+    // a shift, so this rounds down and 4x output lands half a sample later than reported.
+    public int getLatency() {
+        return (int) getExactLatency();
+    }
+
+    // Same delay in (possibly fractional) samples
+    public double getExactLatency() {
+        double delay = 0;
+        for (int s = 1; s <= stages; s++) delay += 2.0 * HalfBand.CENTER / (1 << s);
+        return delay;
+    }
+
+    public int getOversampling() {
+        return oversampling;
+    }
+
+    public void reset() {
+        for (int ch = 0; ch < channels; ch++) {
+            for (int s = 0; s < stages; s++) {
+                up[ch][s].reset();
+                down[ch][s].reset();
+            }
+        }
+    }
+
+    // Rational tanh: x (135135 + 17325 x^2 + 378 x^4 + x^6)
+    //              / (135135 + 62370 x^2 + 3150 x^4 + 28 x^6), clamped to +-1
+    public static float tanh(float x) {
+        if (x >= CLAMP) return 1f;
+        if (x <= -CLAMP) return -1f;
+        float x2 = x * x;
+        float num = x * (135135f + x2 * (17325f + x2 * (378f + x2)));
+        float den = 135135f + x2 * (62370f + x2 * (3150f + 28f * x2));
+        return num / den;
+    }
+
+    private static void saturate(float[] buffer, int n) {
+        for (int i = 0; i < n; i++) buffer[i] = tanh(buffer[i]);
+    }
+
+    private static float peak(float[] buffer, int n) {
+        float max = 0f;
+        for (int i = 0; i < n; i++) max = Math.max(max, Math.abs(buffer[i]));
+        return max;
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.android.signallab;
+
+import org.jtransforms.fft.FloatFFT_1D;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Windowed FFT -> smoothed dB power spectrum. VisualEngine feeds it the processed
+// playback frames; kept free of Android classes so it can be benchmarked on the JVM.
+public class SpectrumAnalyzer {
+    public static final int FFT_SIZE = 1024; // default size
+    private static final float SMOOTHING_ALPHA = 0.85f;
+    private static final float POWER_FLOOR = 1e-18f; // (1e-9)^2, keeps log10 away from 0
+
+    public enum Window {
+        RECTANGULAR,
+        HANN,
+        HAMMING,
+        BLACKMAN
+    }
+
+    // FFT plans and window tables are shared by every analyzer of the same size
+    private static final Map<Integer, FloatFFT_1D> PLANS = new ConcurrentHashMap<>();
+    private static final Map<Long, float[]> WINDOWS = new ConcurrentHashMap<>();
+
+    private final int fftSize;
+    private final Window windowType;
+    private final FloatFFT_1D fft;
+    private final float[] window;
+    private final float[] fft_buffer;
+    private final float[] spectrum;
+    private float[] smoothSpectrum;
+
+    public SpectrumAnalyzer() {
+        this(FFT_SIZE, Window.HANN);
+    }
+
+    public SpectrumAnalyzer(int fftSize, Window windowType) {
+        if (fftSize < 2 || fftSize % 2 != 0) {
+            throw new IllegalArgumentException("FFT size must be even, got " + fftSize);
+        }
+        this.fftSize = fftSize;
+        this.windowType = windowType;
+        fft = PLANS.computeIfAbsent(fftSize, FloatFFT_1D::new);
+        window = WINDOWS.computeIfAbsent(((long) windowType.ordinal() << 32) | fftSize,
+                key -> createWindow(windowType, fftSize));
+        fft_buffer = new float[fftSize];
+        spectrum = new float[fftSize / 2];
+    }
+
+    public int getFftSize() {
+        return fftSize;
+    }
+
+    public Window getWindowType() {
+        return windowType;
+    }
+
+    // Returns the smoothed spectrum, fftSize / 2 bins in dB. The array is reused on
+    // every call.
+    public float[] computeFFT(float[] sampleBuffer) {
+        return computeFFT(sampleBuffer, fftSize);
+    }
+
+    // Same, for a frame of length samples; shorter frames are zero-padded
+    public float[] computeFFT(float[] sampleBuffer, int length) {
+        int n = Math.min(length, fftSize);
+        for (int i = 0; i < n; i++) {
+            fft_buffer[i] = sampleBuffer[i] * window[i];
+        }
+        Arrays.fill(fft_buffer, n, fftSize, 0f);
+
+        // Real input transform, packed as re[0], re[n/2], re[1], im[1], re[2], im[2], ...
+        fft.realForward(fft_buffer);
+
+        // dB straight from power: 10*log10(re^2 + im^2) == 20*log10(|X|), no sqrt
+        spectrum[0] = 10f * (float) Math.log10(fft_buffer[0] * fft_buffer[0] + POWER_FLOOR);
+        for (int i = 1; i < fftSize / 2; i++) {
+            float re = fft_buffer[2 * i];
+            float im = fft_buffer[2 * i + 1];
+            spectrum[i] = 10f * (float) Math.log10(re * re + im * im + POWER_FLOOR);
+        }
+
+        if(smoothSpectrum == null){
+            smoothSpectrum = spectrum.clone();
+        } else{
+            for (int i = 0; i < spectrum.length; i++) {
+                smoothSpectrum[i] = SMOOTHING_ALPHA * smoothSpectrum[i] + (1 - SMOOTHING_ALPHA) * spectrum[i];
+            }
+        }
+        return smoothSpectrum;
+    }
+
+    private static float[] createWindow(Window type, int size) {
+        float[] w = new float[size];
+        double denom = size - 1; // symmetric windows, same as the original Hann
+        for (int i = 0; i < size; i++) {
+            double phase = 2 * Math.PI * i / denom;
+            switch (type) {
+                case RECTANGULAR:
+                    w[i] = 1f;
+                    break;
+                case HANN:
+                    w[i] = (float) (0.5 - 0.5 * Math.cos(phase));
+                    break;
+                case HAMMING:
+                    w[i] = (float) (0.54 - 0.46 * Math.cos(phase));
+                    break;
+                case BLACKMAN:
+                    w[i] = (float) (0.42 - 0.5 * Math.cos(phase) + 0.08 * Math.cos(2 * phase));
+                    break;
+            }
+        }
+        return w;
+    }
+}
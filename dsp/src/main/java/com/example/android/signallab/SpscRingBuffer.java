@@ -0,0 +1,82 @@
+package com.example.android.signallab;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Lock-free single producer / single consumer ring of float samples. One thread may
+// offer, one other thread may poll; neither ever blocks or allocates. Positions are
+// running sample counts, so full and empty are never ambiguous, and each side only
+// publishes its own position with an ordered store after touching the data.
+public final class SpscRingBuffer {
+    private final float[] data;
+    private final int mask;
+    private final AtomicLong writePos = new AtomicLong(); // written by the producer only
+    private final AtomicLong readPos = new AtomicLong();  // written by the consumer only
+    private volatile long dropped;                        // only the producer writes it
+
+    // capacity is rounded up to a power of two
+    public SpscRingBuffer(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity out of range: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        data = new float[size];
+        mask = size - 1;
+    }
+
+    // Producer: appends len samples, or nothing at all if they don't fit (the block is
+    // counted as dropped). Returns whether they were written.
+    public boolean offer(float[] src, int off, int len) {
+        long write = writePos.get();
+        if (write + len - readPos.get() > data.length) {
+            dropped++;
+            return false;
+        }
+        int start = (int) write & mask;
+        int first = Math.min(len, data.length - start);
+        System.arraycopy(src, off, data, start, first);
+        System.arraycopy(src, off + first, data, 0, len - first);
+        writePos.lazySet(write + len);
+        return true;
+    }
+
+    // Consumer: copies up to len samples into dst and returns how many
+    public int poll(float[] dst, int off, int len) {
+        long read = readPos.get();
+        int n = (int) Math.min(len, writePos.get() - read);
+        int start = (int) read & mask;
+        int first = Math.min(n, data.length - start);
+        System.arraycopy(data, start, dst, off, first);
+        System.arraycopy(data, 0, dst, off + first, n - first);
+        readPos.lazySet(read + n);
+        return n;
+    }
+
+    // Consumer: discards up to n samples, returns how many
+    public int skip(int n) {
+        long read = readPos.get();
+        int skipped = (int) Math.min(n, writePos.get() - read);
+        readPos.lazySet(read + skipped);
+        return skipped;
+    }
+
+    // Consumer: discards everything written so far
+    public void clear() {
+        readPos.lazySet(writePos.get());
+    }
+
+    // Samples waiting to be polled. Exact on the consumer, a lower bound of the free
+    // space on the producer.
+    public int available() {
+        return (int) (writePos.get() - readPos.get());
+    }
+
+    public int capacity() {
+        return data.length;
+    }
+
+    // Blocks refused by offer since creation
+    public long getDroppedCount() {
+        return dropped;
+    }
+}
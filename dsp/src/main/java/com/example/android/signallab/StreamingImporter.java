@@ -0,0 +1,77 @@
+package com.example.android.signallab;
+
+import java.io.IOException;
+
+// Moves a PcmSource into a SampleStore a block at a time on its own thread, so playback
+// can start once the first readySamples are in instead of after the whole file. The
+// source is only read as fast as the store takes it; a decoder feeding it through a
+// bounded pipe is held back by that pipe when the importer is not keeping up.
+public class StreamingImporter {
+    private static final int BLOCK = 4096;
+
+    public interface Listener {
+        void onReady();                    // readySamples are in the store, playback can start
+        void onFinished(int samples);      // the source is exhausted (or cancelled)
+        void onError(IOException e);
+    }
+
+    private final PcmSource source;
+    private final SampleStore store;
+    private final int readySamples;
+    private final short[] block = new short[BLOCK];
+    private volatile boolean cancelled;
+    private volatile int imported;
+    private Thread thread;
+
+    public StreamingImporter(PcmSource source, SampleStore store, int readySamples) {
+        this.source = source;
+        this.store = store;
+        this.readySamples = readySamples;
+    }
+
+    public synchronized void start(Listener listener) {
+        if (thread != null) throw new IllegalStateException("Already started");
+        thread = new Thread(() -> run(listener), "PcmImport");
+        thread.start();
+    }
+
+    // Imports on the calling thread, listener may be null
+    public void run(Listener listener) {
+        boolean ready = false;
+        try (PcmSource in = source) {
+            int n;
+            while (!cancelled && (n = in.read(block, 0, BLOCK)) > 0) {
+                if (cancelled) break; // the read may have blocked across a cancel
+                store.append(block, 0, n);
+                imported += n;
+                if (!ready && imported >= readySamples) {
+                    ready = true;
+                    if (listener != null) listener.onReady();
+                }
+            }
+        } catch (IOException e) {
+            if (!cancelled) {
+                if (listener != null) listener.onError(e);
+                return;
+            }
+        }
+        if (listener != null) {
+            if (!ready) listener.onReady(); // shorter than readySamples
+            listener.onFinished(imported);
+        }
+    }
+
+    // Stops after the current block. A read blocked on the source is only released by
+    // the producer (or by closing it), so the thread is not joined here.
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public int getImported() {
+        return imported;
+    }
+}
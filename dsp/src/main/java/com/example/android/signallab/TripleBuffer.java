@@ -0,0 +1,41 @@
+package com.example.android.signallab;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Hands the latest float[] frame from one writer thread to one reader thread without
+// locks or per-frame allocation. Three slots: the writer fills its back slot and swaps
+// it with the middle one; the reader swaps its front slot with the middle one when a
+// new frame is there. Frames the reader never got to are simply overwritten, so it
+// never sees a backlog, only the newest frame.
+public final class TripleBuffer {
+    private static final int INDEX = 3;
+    private static final int FRESH = 4; // set in middle when it holds an unread frame
+
+    private final float[][] slots = new float[3][];
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;  // writer only
+    private int front = 2; // reader only
+
+    // Writer: the slot to fill next, (re)allocated only when length changes
+    public float[] writeBuffer(int length) {
+        float[] slot = slots[back];
+        if (slot == null || slot.length != length) {
+            slot = new float[length];
+            slots[back] = slot;
+        }
+        return slot;
+    }
+
+    // Writer: makes the slot returned by writeBuffer the latest frame
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & INDEX;
+    }
+
+    // Reader: the newest frame if one was published since the last call, else null. The
+    // array stays valid, and untouched by the writer, until the next call.
+    public float[] poll() {
+        if ((middle.get() & FRESH) == 0) return null;
+        front = middle.getAndSet(front) & INDEX;
+        return slots[front];
+    }
+}
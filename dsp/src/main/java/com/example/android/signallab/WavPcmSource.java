@@ -0,0 +1,79 @@
+package com.example.android.signallab;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// 16-bit PCM .wav: parses the RIFF header up to the data chunk and then reads like a
+// RawPcmSource. Other encodings are rejected.
+public class WavPcmSource extends RawPcmSource {
+    private WavPcmSource(ReadableByteChannel channel, Header header) {
+        super(channel, header.sampleRate, header.channels, header.dataBytes);
+    }
+
+    public static WavPcmSource open(Path path) throws IOException {
+        return open(FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    // Consumes the header from channel, which is left at the first sample
+    public static WavPcmSource open(ReadableByteChannel channel) throws IOException {
+        try {
+            return new WavPcmSource(channel, readHeader(channel));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static final class Header {
+        int sampleRate;
+        int channels;
+        long dataBytes;
+    }
+
+    private static Header readHeader(ReadableByteChannel channel) throws IOException {
+        ByteBuffer riff = readFully(channel, 12);
+        if (riff.getInt() != 0x46464952 || riff.getInt(8) != 0x45564157) { // "RIFF", "WAVE"
+            throw new IOException("Not a RIFF/WAVE file");
+        }
+        Header header = null;
+        while (true) {
+            ByteBuffer chunk = readFully(channel, 8);
+            int id = chunk.getInt();
+            long size = chunk.getInt() & 0xffffffffL;
+            if (id == 0x20746d66) { // "fmt "
+                ByteBuffer fmt = readFully(channel, (int) size + (int) (size & 1));
+                int format = fmt.getShort() & 0xffff;
+                header = new Header();
+                header.channels = fmt.getShort() & 0xffff;
+                header.sampleRate = fmt.getInt();
+                fmt.position(14);
+                int bits = fmt.getShort() & 0xffff;
+                boolean pcm = format == 1 || (format == 0xfffe && size >= 40 && fmt.getShort(24) == 1);
+                if (!pcm || bits != 16) {
+                    throw new IOException("Only 16-bit PCM .wav is supported (format " + format + ", " + bits + " bit)");
+                }
+            } else if (id == 0x61746164) { // "data"
+                if (header == null) throw new IOException("data chunk before fmt chunk");
+                header.dataBytes = size;
+                return header;
+            } else {
+                readFully(channel, (int) size + (int) (size & 1)); // skip LIST, fact, ...
+            }
+        }
+    }
+
+    private static ByteBuffer readFully(ReadableByteChannel channel, int n) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(n).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new EOFException("Truncated .wav header");
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
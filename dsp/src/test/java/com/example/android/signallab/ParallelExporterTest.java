@@ -0,0 +1,117 @@
+package com.example.android.signallab;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+// Exports the same take on one and on several workers, with different chunk boundaries
+// and so different state hand-offs, and holds both to a plain sequential render.
+public class ParallelExporterTest {
+    private static final int SAMPLE_RATE = 44100;
+    private static final int SECONDS = 30;
+    private static final int BLOCK = 4096; // ParallelExporter's and OfflineRenderer's
+    private static final int WORKERS = 4;
+    private static final double MAX_OFF = 1e-4;  // fraction of samples allowed to be an LSB off, as documented
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void threeBandMatchesWithinAnLsb() throws IOException {
+        EqProcessor eq = new EqProcessor(SAMPLE_RATE, 2, BLOCK);
+        eq.setGain(0, 2f);
+        eq.setGain(2, 0.5f);
+        assertCloseToSequential(eq, take(2));
+    }
+
+    @Test
+    public void graphic31MatchesWithinAnLsb() throws IOException {
+        EqProcessor eq = new EqProcessor(FilterBank.graphic31(SAMPLE_RATE, 1, BLOCK));
+        for (int band = 0; band < 31; band++) eq.setGain(band, band % 2 == 0 ? 1.8f : 0.6f);
+        assertCloseToSequential(eq, take(1));
+    }
+
+    @Test
+    public void linearPhaseIsBitExact() throws IOException {
+        EqProcessor eq = new EqProcessor(SAMPLE_RATE, 2, BLOCK);
+        eq.setGain(1, 3f);
+        eq.setLinearPhase(8192, 1024);
+        SampleStore take = take(2);
+        short[] sequential = sequential(eq, take);
+        assertArrayEquals(sequential, export(eq, take, 1));
+        assertArrayEquals(sequential, export(eq, take, WORKERS));
+    }
+
+    // Every sample within 1 LSB of the sequential render, and at most MAX_OFF of them off
+    // at all
+    private void assertCloseToSequential(EqProcessor eq, SampleStore take) throws IOException {
+        short[] sequential = sequential(eq, take);
+        short[] single = export(eq, take, 1);
+        short[] parallel = export(eq, take, WORKERS);
+        assertEquals(sequential.length, single.length);
+        assertEquals(sequential.length, parallel.length);
+        int off = 0;
+        for (int i = 0; i < sequential.length; i++) {
+            assertTrue("sample " + i, Math.abs(single[i] - sequential[i]) <= 1);
+            assertTrue("sample " + i, Math.abs(parallel[i] - sequential[i]) <= 1);
+            if (single[i] != sequential[i] || parallel[i] != sequential[i]) off++;
+        }
+        assertTrue(off + " of " + sequential.length + " samples off by an LSB", off <= MAX_OFF * sequential.length);
+    }
+
+    private short[] export(EqProcessor eq, SampleStore take, int workers) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(workers);
+        try {
+            Path out = folder.newFile().toPath();
+            new ParallelExporter(eq, pool).export(take, out, ParallelExporter.Format.RAW);
+            ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(out)).order(ByteOrder.LITTLE_ENDIAN);
+            short[] samples = new short[bytes.remaining() / 2];
+            bytes.asShortBuffer().get(samples);
+            return samples;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // One chain over the whole take, BLOCK frames at a time
+    private static short[] sequential(EqProcessor eq, SampleStore take) {
+        int channels = take.getChannels();
+        EqProcessor chain = eq.copy(channels, BLOCK);
+        short[] out = new short[take.size()];
+        float[] in = new float[BLOCK * channels];
+        float[] processed = new float[BLOCK * channels];
+        for (int pos = 0; pos < take.frames(); pos += BLOCK) {
+            int n = Math.min(BLOCK, take.frames() - pos);
+            take.read(pos * channels, in, 0, n * channels);
+            chain.process(in, processed, n);
+            for (int i = 0; i < n * channels; i++) out[pos * channels + i] = SampleStore.toPcm16(processed[i]);
+        }
+        return out;
+    }
+
+    // Noise with a slow swell, loud enough to reach the clipper now and then
+    private static SampleStore take(int channels) {
+        SampleStore store = new SampleStore();
+        store.setChannels(channels);
+        Random random = new Random(20);
+        float[] frame = new float[channels];
+        for (int i = 0; i < SAMPLE_RATE * SECONDS; i++) {
+            float level = 0.2f + 0.15f * (float) Math.sin(i * 2 * Math.PI / SAMPLE_RATE);
+            for (int c = 0; c < channels; c++) frame[c] = level * (random.nextFloat() * 2 - 1);
+            store.append(frame);
+        }
+        return store;
+    }
+}
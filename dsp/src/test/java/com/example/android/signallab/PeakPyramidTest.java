@@ -0,0 +1,86 @@
+package com.example.android.signallab;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+// render() against a plain min/max scan of the store, for zooms from under a sample
+// per column to the whole take, and while the take is still being appended to.
+public class PeakPyramidTest {
+    private static final int[] COLUMNS = {1, 3, 7, 100, 333, 1080};
+
+    @Test
+    public void monoMatchesScan() {
+        checkWhileAppending(1, 300_000);
+    }
+
+    @Test
+    public void stereoMatchesScan() {
+        checkWhileAppending(2, 150_000);
+    }
+
+    @Test
+    public void emptyRangeIsZero() {
+        SampleStore store = new SampleStore();
+        short[] min = new short[4];
+        short[] max = new short[4];
+        min[0] = max[0] = 99;
+        store.getPeaks().render(0, 1000, 4, min, max);
+        assertEquals(0, min[0]);
+        assertEquals(0, max[0]);
+    }
+
+    // Appends in odd sized pieces, so the pyramid's upper levels lag the samples, and
+    // checks after every piece
+    private static void checkWhileAppending(int channels, int frames) {
+        SampleStore store = new SampleStore();
+        store.setChannels(channels);
+        Random random = new Random(19);
+        short[] piece = new short[7919 * channels];
+        int appended = 0;
+        while (appended < frames) {
+            int n = Math.min(frames - appended, 1 + random.nextInt(7919)) * channels;
+            for (int i = 0; i < n; i++) {
+                // a wandering level, so neighbouring columns differ
+                piece[i] = (short) (random.nextGaussian() * 3000 + 8000 * Math.sin(appended / 5000.0));
+            }
+            store.append(piece, 0, n);
+            appended += n / channels;
+            check(store, 0, appended);
+            int start = random.nextInt(appended);
+            check(store, start, start + random.nextInt(appended - start + 1));
+            check(store, start, start + random.nextInt(200) + 1); // under 64 frames a column
+        }
+    }
+
+    private static void check(SampleStore store, int start, int end) {
+        int channels = store.getChannels();
+        for (int columns : COLUMNS) {
+            short[] min = new short[columns];
+            short[] max = new short[columns];
+            store.getPeaks().render(start, end, columns, min, max);
+            int last = Math.min(end, store.frames());
+            long span = Math.max(0, last - start);
+            for (int c = 0; c < columns; c++) {
+                int s0 = (int) (start + span * c / columns);
+                int s1 = (int) (start + span * (c + 1) / columns);
+                if (s1 <= s0) s1 = Math.min(s0 + 1, last);
+                short expectedMin = 0;
+                short expectedMax = 0;
+                if (s1 > s0) {
+                    expectedMin = Short.MAX_VALUE;
+                    expectedMax = Short.MIN_VALUE;
+                    for (int i = s0 * channels; i < s1 * channels; i++) {
+                        expectedMin = (short) Math.min(expectedMin, store.get(i));
+                        expectedMax = (short) Math.max(expectedMax, store.get(i));
+                    }
+                }
+                String where = "frames " + s0 + ".." + s1 + " of " + store.frames();
+                assertEquals(where, expectedMin, min[c]);
+                assertEquals(where, expectedMax, max[c]);
+            }
+        }
+    }
+}
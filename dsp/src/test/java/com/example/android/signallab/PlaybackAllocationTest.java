@@ -0,0 +1,92 @@
+package com.example.android.signallab;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+// The playback block as AudioEngine runs it (store read -> EQ -> analysis ring ->
+// PCM16 conversion) must not allocate once it's warmed up: a GC pause on the audio
+// thread is an underrun.
+public class PlaybackAllocationTest {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int FRAME_SIZE = 1024;
+    private static final int WARMUP_BLOCKS = 20_000; // enough for the JIT to settle
+    private static final int BLOCKS = 2_000;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Test
+    public void monoPcm16StoreDoesNotAllocate() {
+        assertEquals(0, allocatedPerBlock(new SampleStore(), 1));
+    }
+
+    @Test
+    public void stereoFloatStoreDoesNotAllocate() {
+        assertEquals(0, allocatedPerBlock(new SampleStore(true), 2));
+    }
+
+    // Bytes allocated by BLOCKS steady state blocks, divided by BLOCKS
+    private static long allocatedPerBlock(SampleStore store, int channels) {
+        store.setChannels(channels);
+        float[] noise = new float[SAMPLE_RATE * channels];
+        java.util.Random random = new java.util.Random(1);
+        for (int i = 0; i < noise.length; i++) noise[i] = random.nextFloat() * 0.5f - 0.25f;
+        store.append(noise, 0, noise.length);
+
+        Block block = new Block(store, new EqProcessor(SAMPLE_RATE, channels, FRAME_SIZE), channels);
+        for (int i = 0; i < WARMUP_BLOCKS; i++) block.run();
+
+        long before = THREADS.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < BLOCKS; i++) block.run();
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - before;
+        return allocated / BLOCKS;
+    }
+
+    // Mirrors AudioEngine.playBlock with its preallocated buffers
+    private static final class Block {
+        final SampleStore store;
+        final EqProcessor eq;
+        final int channels;
+        final int frames;
+        final float[] floatFrame;
+        final float[] processedFrame;
+        final short[] frame;
+        final float[] analysis = new float[FRAME_SIZE];
+        final SpscRingBuffer ring = new SpscRingBuffer(1 << 15);
+        final PerfMetrics metrics = PerfMetrics.getInstance();
+        int position;
+
+        Block(SampleStore store, EqProcessor eq, int channels) {
+            this.store = store;
+            this.eq = eq;
+            this.channels = channels;
+            this.frames = store.frames();
+            floatFrame = new float[FRAME_SIZE * channels];
+            processedFrame = new float[FRAME_SIZE * channels];
+            frame = new short[FRAME_SIZE * channels];
+        }
+
+        void run() {
+            int toWrite = Math.min(FRAME_SIZE, frames - position);
+            int n = toWrite * channels;
+            store.read(position * channels, floatFrame, 0, n);
+
+            long start = System.nanoTime();
+            eq.process(floatFrame, processedFrame, toWrite);
+            metrics.record(PerfMetrics.Stage.EQ, start);
+
+            // Producer side of the analysis ring, drained here in place of the analysis thread
+            for (int i = 0; i < toWrite; i++) analysis[i] = processedFrame[i * channels];
+            ring.offer(analysis, 0, toWrite);
+            ring.poll(analysis, 0, toWrite);
+
+            for (int i = 0; i < n; i++) frame[i] = SampleStore.toPcm16(processedFrame[i]);
+
+            position += toWrite;
+            if (position >= frames) position = 0;
+        }
+    }
+}
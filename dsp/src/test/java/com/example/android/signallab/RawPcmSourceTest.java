@@ -0,0 +1,101 @@
+package com.example.android.signallab;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+public class RawPcmSourceTest {
+
+    @Test
+    public void readsLittleEndianSamples() throws IOException {
+        short[] samples = {0, 1, -1, Short.MAX_VALUE, Short.MIN_VALUE, 1234};
+        RawPcmSource source = new RawPcmSource(channel(pcm(samples)), 48000, 1);
+        assertArrayEquals(samples, readAll(source));
+    }
+
+    @Test
+    public void dropsTrailingOddByte() throws IOException {
+        byte[] bytes = Arrays.copyOf(pcm(new short[] {100, -100, 7}), 7);
+        bytes[6] = 0x55;
+        RawPcmSource source = new RawPcmSource(channel(bytes), 48000, 1);
+        assertArrayEquals(new short[] {100, -100, 7}, readAll(source));
+        assertEquals(-1, source.read(new short[4], 0, 4));
+    }
+
+    @Test
+    public void samplesSplitAcrossReadsArePutBackTogether() throws IOException {
+        short[] samples = new short[5000];
+        for (int i = 0; i < samples.length; i++) samples[i] = (short) (i * 37);
+        // three bytes per channel read, so every other sample straddles two reads
+        RawPcmSource source = new RawPcmSource(new TrickleChannel(pcm(samples), 3), 48000, 2);
+        assertArrayEquals(samples, readAll(source));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBadFormat() {
+        new RawPcmSource(channel(new byte[0]), 48000, 0);
+    }
+
+    static byte[] pcm(short[] samples) {
+        ByteBuffer buffer = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (short s : samples) buffer.putShort(s);
+        return buffer.array();
+    }
+
+    static ReadableByteChannel channel(byte[] bytes) {
+        return Channels.newChannel(new ByteArrayInputStream(bytes));
+    }
+
+    // Everything the source returns until -1, in small reads
+    static short[] readAll(PcmSource source) throws IOException {
+        short[] out = new short[0];
+        short[] block = new short[333];
+        int n;
+        while ((n = source.read(block, 0, block.length)) > 0) {
+            out = Arrays.copyOf(out, out.length + n);
+            System.arraycopy(block, 0, out, out.length - n, n);
+        }
+        return out;
+    }
+
+    // Hands out at most step bytes per read, like a pipe fed in odd sized pieces
+    static final class TrickleChannel implements ReadableByteChannel {
+        private final byte[] bytes;
+        private final int step;
+        private int position;
+        private boolean open = true;
+
+        TrickleChannel(byte[] bytes, int step) {
+            this.bytes = bytes;
+            this.step = step;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (position == bytes.length) return -1;
+            int n = Math.min(step, Math.min(dst.remaining(), bytes.length - position));
+            dst.put(bytes, position, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.android.signallab;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class StreamingImporterTest {
+
+    @Test
+    public void shortSourceIsStillReady() throws IOException {
+        short[] samples = ramp(100);
+        SampleStore store = new SampleStore();
+        Events events = new Events();
+        new StreamingImporter(new RawPcmSource(RawPcmSourceTest.channel(RawPcmSourceTest.pcm(samples)), 48000, 1),
+                store, 10_000).run(events);
+        assertEquals(List.of("ready", "finished 100"), events.list);
+        assertEquals(100, store.size());
+    }
+
+    @Test
+    public void readyOnceWhenEnoughIsIn() throws IOException {
+        short[] samples = ramp(20_000);
+        SampleStore store = new SampleStore();
+        Events events = new Events();
+        new StreamingImporter(new RawPcmSource(RawPcmSourceTest.channel(RawPcmSourceTest.pcm(samples)), 48000, 1),
+                store, 5000).run(events);
+        assertEquals(List.of("ready", "finished 20000"), events.list);
+        for (int i = 0; i < samples.length; i++) assertEquals(samples[i], store.get(i));
+    }
+
+    @Test
+    public void cancelDuringBlockedReadDropsLateSamples() throws Exception {
+        Pipe pipe = Pipe.open();
+        SampleStore store = new SampleStore();
+        Events events = new Events();
+        StreamingImporter importer = new StreamingImporter(new RawPcmSource(pipe.source(), 48000, 1), store, 1);
+        importer.start(events);
+
+        write(pipe, ramp(3000));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (importer.getImported() < 3000 && System.nanoTime() < deadline) Thread.sleep(1);
+        assertEquals(3000, importer.getImported());
+
+        // The importer is now parked in read() with nothing in the pipe
+        importer.cancel();
+        write(pipe, ramp(500)); // releases the read, but must not reach the store
+        assertTrue(events.finished.await(5, TimeUnit.SECONDS));
+        pipe.sink().close();
+
+        assertEquals(List.of("ready", "finished 3000"), events.list);
+        assertEquals(3000, store.size());
+        assertTrue(importer.isCancelled());
+    }
+
+    private static void write(Pipe pipe, short[] samples) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(RawPcmSourceTest.pcm(samples));
+        while (bytes.hasRemaining()) pipe.sink().write(bytes);
+    }
+
+    private static short[] ramp(int n) {
+        short[] samples = new short[n];
+        for (int i = 0; i < n; i++) samples[i] = (short) (i * 7);
+        return samples;
+    }
+
+    private static final class Events implements StreamingImporter.Listener {
+        final List<String> list = new ArrayList<>();
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        @Override
+        public synchronized void onReady() {
+            list.add("ready");
+        }
+
+        @Override
+        public synchronized void onFinished(int samples) {
+            list.add("finished " + samples);
+            finished.countDown();
+        }
+
+        @Override
+        public synchronized void onError(IOException e) {
+            list.add("error " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.android.signallab;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+public class WavPcmSourceTest {
+    private static final short[] SAMPLES = {10, -10, 20, -20, 30, -30, 40, -40};
+
+    @Test
+    public void skipsListAndOddSizedChunksAfterFmt() throws IOException {
+        byte[] wav = new Wav()
+                .fmt(1, 2, 44100, 16)
+                .chunk("LIST", new byte[] {'I', 'N', 'F', 'O', 'x'}) // odd size, padded
+                .chunk("junk", new byte[3])
+                .data(RawPcmSourceTest.pcm(SAMPLES))
+                .bytes();
+        WavPcmSource source = WavPcmSource.open(RawPcmSourceTest.channel(wav));
+        assertEquals(44100, source.getSampleRate());
+        assertEquals(2, source.getChannels());
+        assertArrayEquals(SAMPLES, RawPcmSourceTest.readAll(source));
+    }
+
+    @Test
+    public void stopsAtEndOfDataChunk() throws IOException {
+        byte[] wav = new Wav()
+                .fmt(1, 1, 48000, 16)
+                .data(RawPcmSourceTest.pcm(SAMPLES))
+                .chunk("LIST", new byte[] {1, 2, 3, 4, 5, 6})  // would read as 3 more samples
+                .chunk("id3 ", new byte[] {9, 9, 9})
+                .bytes();
+        WavPcmSource source = WavPcmSource.open(new RawPcmSourceTest.TrickleChannel(wav, 5));
+        assertArrayEquals(SAMPLES, RawPcmSourceTest.readAll(source));
+    }
+
+    @Test
+    public void dropsOddByteAtEndOfData() throws IOException {
+        byte[] data = new byte[2 * SAMPLES.length + 1];
+        System.arraycopy(RawPcmSourceTest.pcm(SAMPLES), 0, data, 0, data.length - 1);
+        data[data.length - 1] = 0x7f;
+        byte[] wav = new Wav()
+                .fmt(1, 1, 48000, 16)
+                .data(data)
+                .chunk("LIST", new byte[] {1, 2})
+                .bytes();
+        WavPcmSource source = WavPcmSource.open(RawPcmSourceTest.channel(wav));
+        assertArrayEquals(SAMPLES, RawPcmSourceTest.readAll(source));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsFloatWav() throws IOException {
+        WavPcmSource.open(RawPcmSourceTest.channel(new Wav().fmt(3, 1, 48000, 32).data(new byte[8]).bytes()));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsDataBeforeFmt() throws IOException {
+        WavPcmSource.open(RawPcmSourceTest.channel(new Wav().data(new byte[8]).fmt(1, 1, 48000, 16).bytes()));
+    }
+
+    // RIFF writer for test files, the RIFF size isn't checked by the reader
+    private static final class Wav {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Wav() {
+            out.writeBytes("RIFF".getBytes(StandardCharsets.US_ASCII));
+            out.writeBytes(new byte[4]);
+            out.writeBytes("WAVE".getBytes(StandardCharsets.US_ASCII));
+        }
+
+        Wav fmt(int format, int channels, int sampleRate, int bits) {
+            ByteBuffer fmt = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            fmt.putShort((short) format).putShort((short) channels).putInt(sampleRate)
+                    .putInt(sampleRate * channels * bits / 8).putShort((short) (channels * bits / 8))
+                    .putShort((short) bits);
+            return chunk("fmt ", fmt.array());
+        }
+
+        Wav data(byte[] bytes) {
+            return chunk("data", bytes);
+        }
+
+        // Pads odd sized chunks with a zero byte, as RIFF does
+        Wav chunk(String id, byte[] body) {
+            out.writeBytes(id.getBytes(StandardCharsets.US_ASCII));
+            out.writeBytes(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(body.length).array());
+            out.writeBytes(body);
+            if ((body.length & 1) != 0) out.write(0);
+            return this;
+        }
+
+        byte[] bytes() {
+            return out.toByteArray();
+        }
+    }
+}